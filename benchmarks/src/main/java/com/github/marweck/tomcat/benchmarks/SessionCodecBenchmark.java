@@ -0,0 +1,183 @@
+package com.github.marweck.tomcat.benchmarks;
+
+import com.github.marweck.tomcat.session.CompactSessionCodec;
+import com.github.marweck.tomcat.session.SessionCodec;
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link CompactSessionCodec} with FST, the default codec of the
+ * Redis session store, encoding and decoding the attributes of a session one
+ * by one, as the session stores do.
+ * <p>
+ * Run with {@code java -jar target/benchmarks.jar}, or through {@link #main},
+ * which prints the encoded sizes first.
+ *
+ * @author Marcio Carvalho
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionCodecBenchmark {
+
+    /**
+     * Session attributes: a few scalars, or scalars plus a large text and a
+     * collection
+     */
+    @Param({"small", "large"})
+    private String payload;
+
+    private final SessionCodec compact = new CompactSessionCodec();
+
+    private final FSTConfiguration fst = FSTConfiguration.createDefaultConfiguration();
+
+    private final ClassLoader classLoader = SessionCodecBenchmark.class.getClassLoader();
+
+    private Map<String, Object> attributes;
+
+    private List<byte[]> compactEncoded;
+
+    private List<byte[]> fstEncoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        attributes = attributes(payload);
+        compactEncoded = new ArrayList<>();
+        fstEncoded = new ArrayList<>();
+
+        for (Object value : attributes.values()) {
+            compactEncoded.add(compact.encode(value));
+            fstEncoded.add(fst.asByteArray(value));
+        }
+    }
+
+    @Benchmark
+    public int compactEncode() throws IOException {
+        int size = 0;
+
+        for (Object value : attributes.values()) {
+            size += compact.encode(value).length;
+        }
+
+        return size;
+    }
+
+    @Benchmark
+    public int fstEncode() {
+        int size = 0;
+
+        for (Object value : attributes.values()) {
+            size += fst.asByteArray(value).length;
+        }
+
+        return size;
+    }
+
+    @Benchmark
+    public List<Object> compactDecode() throws IOException {
+        List<Object> values = new ArrayList<>(compactEncoded.size());
+
+        for (byte[] data : compactEncoded) {
+            values.add(compact.decode(data, classLoader));
+        }
+
+        return values;
+    }
+
+    @Benchmark
+    public List<Object> fstDecode() {
+        List<Object> values = new ArrayList<>(fstEncoded.size());
+
+        for (byte[] data : fstEncoded) {
+            values.add(fst.asObject(data));
+        }
+
+        return values;
+    }
+
+    /**
+     * @param payload
+     *         small or large
+     * @return session attributes by name
+     */
+    static Map<String, Object> attributes(String payload) {
+
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("userId", 1234567L);
+        attributes.put("userName", "marcio.carvalho");
+        attributes.put("locale", "pt_BR");
+        attributes.put("authenticated", Boolean.TRUE);
+        attributes.put("loginTime", new Date(1577836800000L));
+        attributes.put("visits", 42);
+        attributes.put("csrfToken", "3f2a9c71-5be4-4d0e-9f0a-6c1d2b7e8a90");
+
+        if ("large".equals(payload)) {
+            StringBuilder text = new StringBuilder();
+
+            for (int i = 0; i < 500; i++) {
+                text.append("<li class=\"item\">Item ").append(i).append("</li>\n");
+            }
+
+            Map<String, Object> cart = new HashMap<>();
+
+            for (int i = 0; i < 50; i++) {
+                cart.put("sku-" + i, i * 3);
+            }
+
+            attributes.put("renderedMenu", text.toString());
+            attributes.put("cart", cart);
+        }
+
+        return attributes;
+    }
+
+    /**
+     * Prints the encoded size of each payload, then runs the benchmark
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+        SessionCodec compact = new CompactSessionCodec();
+        FSTConfiguration fst = FSTConfiguration.createDefaultConfiguration();
+
+        for (String payload : new String[]{"small", "large"}) {
+            int compactSize = 0;
+            int fstSize = 0;
+
+            for (Object value : attributes(payload).values()) {
+                compactSize += compact.encode(value).length;
+                fstSize += fst.asByteArray(value).length;
+            }
+
+            System.out.println(payload + " session: compact " + compactSize + " bytes, FST " + fstSize + " bytes");
+        }
+
+        new Runner(new OptionsBuilder().include(SessionCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,195 @@
+package com.github.marweck.tomcat.connector;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Connector HTTP compression policy.
+ * <p>
+ * MIME types are matched by prefix, as Tomcat does, so "text/" covers every
+ * text type. Responses are compressed when their type is included and their
+ * length is unknown or greater than the minimum size. Excluded types are
+ * removed from the included ones.
+ * <p>
+ * Tomcat 7 protocol handlers have a single size threshold, so per MIME type
+ * thresholds are only available on the Tomcat 9 launcher.
+ *
+ * @author Marcio Carvalho
+ */
+public class CompressionPolicy {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(CompressionPolicy.class);
+
+    /**
+     * Text based types worth compressing
+     */
+    private static final String[] DEFAULT_MIME_TYPES = {
+            "text/html", "text/xhtml", "text/xml", "text/css", "text/plain", "text/javascript", "text/csv",
+            "application/xhtml+xml", "application/xml", "application/javascript", "application/json",
+            "application/ld+json", "application/manifest+json", "application/x-ndjson", "application/wasm",
+            "image/svg+xml"};
+
+    /**
+     * Compression mode
+     */
+    private Mode mode = Mode.ON;
+
+    /**
+     * Minimum response size, in bytes
+     */
+    private int minSize = 4096;
+
+    /**
+     * Included MIME type prefixes
+     */
+    private final Set<String> mimeTypes = new LinkedHashSet<>(Arrays.asList(DEFAULT_MIME_TYPES));
+
+    /**
+     * Excluded MIME types
+     */
+    private final Set<String> excludedMimeTypes = new LinkedHashSet<>();
+
+    /**
+     * Regular expression of user agents never receiving compressed responses
+     */
+    private String noCompressionUserAgents;
+
+    /**
+     * Compression modes, as the connector compression attribute
+     */
+    public enum Mode {
+
+        /**
+         * Compresses the responses allowed by the policy
+         */
+        ON,
+
+        /**
+         * Compresses every response, whatever its type or size
+         */
+        FORCE
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public CompressionPolicy setMode(Mode mode) {
+        if (mode == null) {
+            throw new IllegalStateException("Compression mode is null");
+        }
+
+        this.mode = mode;
+        return this;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @param minSize
+     *         minimum response size, in bytes
+     */
+    public CompressionPolicy setMinSize(int minSize) {
+        this.minSize = minSize;
+        return this;
+    }
+
+    public Set<String> getMimeTypes() {
+        return mimeTypes;
+    }
+
+    /**
+     * Replaces the included MIME type prefixes
+     *
+     * @param mimeTypes
+     */
+    public CompressionPolicy setMimeTypes(String... mimeTypes) {
+        this.mimeTypes.clear();
+        return addMimeTypes(mimeTypes);
+    }
+
+    /**
+     * Adds included MIME type prefixes
+     *
+     * @param mimeTypes
+     */
+    public CompressionPolicy addMimeTypes(String... mimeTypes) {
+        for (String mimeType : mimeTypes) {
+            this.mimeTypes.add(mimeType.trim().toLowerCase(Locale.ENGLISH));
+        }
+
+        return this;
+    }
+
+    public Set<String> getExcludedMimeTypes() {
+        return excludedMimeTypes;
+    }
+
+    /**
+     * Excludes MIME types from the included ones
+     *
+     * @param mimeTypes
+     */
+    public CompressionPolicy exclude(String... mimeTypes) {
+        for (String mimeType : mimeTypes) {
+            excludedMimeTypes.add(mimeType.trim().toLowerCase(Locale.ENGLISH));
+        }
+
+        return this;
+    }
+
+    public String getNoCompressionUserAgents() {
+        return noCompressionUserAgents;
+    }
+
+    /**
+     * @param noCompressionUserAgents
+     *         regular expression of user agents never receiving compressed
+     *         responses
+     */
+    public CompressionPolicy setNoCompressionUserAgents(String noCompressionUserAgents) {
+        this.noCompressionUserAgents = noCompressionUserAgents;
+        return this;
+    }
+
+    /**
+     * Applies the policy to the connector
+     *
+     * @param connector
+     */
+    public void configure(Connector connector) {
+
+        StringBuilder compressible = new StringBuilder();
+
+        for (String mimeType : mimeTypes) {
+            if (!excludedMimeTypes.contains(mimeType)) {
+                compressible.append(compressible.length() == 0 ? "" : ",").append(mimeType);
+            }
+        }
+
+        setProperty(connector, "compression", mode.name().toLowerCase(Locale.ENGLISH));
+        setProperty(connector, "compressionMinSize", Integer.toString(minSize));
+        setProperty(connector, "compressableMimeType", compressible.toString());
+
+        if (noCompressionUserAgents != null) {
+            setProperty(connector, "noCompressionUserAgents", noCompressionUserAgents);
+        }
+    }
+
+    private void setProperty(Connector connector, String name, String value) {
+        if (!connector.setProperty(name, value)) {
+            log.warn("Connector property not supported by " + connector.getProtocolHandlerClassName() + ": " + name);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.marweck.tomcat.launcher;
 
+import com.github.marweck.tomcat.connector.CompressionPolicy;
 import com.github.marweck.tomcat.session.DefaultSessionStore;
 import com.github.marweck.tomcat.session.SessionStore;
 import org.apache.catalina.Host;
@@ -66,6 +67,11 @@ public final class Tomcat7Launcher {
      */
     private final SessionStore sessionStore;
 
+    /**
+     * HTTP compression policy, applied when compression is enabled
+     */
+    private CompressionPolicy compressionPolicy = new CompressionPolicy();
+
     /**
      * Full constructor
      *
@@ -144,6 +150,22 @@ public final class Tomcat7Launcher {
         this(8080, sessionStore);
     }
 
+    /**
+     * Sets the HTTP compression policy, applied when compression is enabled
+     *
+     * @param compressionPolicy
+     *         MIME types, minimum size and exclusions
+     * @return this launcher
+     */
+    public Tomcat7Launcher setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        if (compressionPolicy == null) {
+            throw new IllegalStateException("Compression policy is null");
+        }
+
+        this.compressionPolicy = compressionPolicy;
+        return this;
+    }
+
     /**
      * Configures and starts the embedded Tomcat. When returned, the tomcat will
      * have stopped.
@@ -237,8 +259,9 @@ public final class Tomcat7Launcher {
     /**
      * Creates and configures the server connector.
      * <p>
-     * This connector uses compression by default for every text file (html, js,
-     * xml, css, json) with size greater than 4KB.
+     * This connector uses compression by default, as defined by the compression
+     * policy: text types (html, js, xml, css, json, svg, ndjson, wasm) with size
+     * greater than 4KB.
      *
      * @param tomcat
      * @return
@@ -252,11 +275,7 @@ public final class Tomcat7Launcher {
         connector.setProperty("bindOnInit", "false");
 
         if (compressingEnabled) {
-            connector.setProperty("compression", "on");
-            connector.setProperty("compressionMinSize", "4096");
-            connector.setProperty("noCompressionUserAgents", "gozilla, traviata");
-            connector.setProperty("compressableMimeType",
-                    "text/html,text/xhtml,text/xml,text/css,application/json,application/javascript");
+            compressionPolicy.configure(connector);
         }
 
         tomcat.getService().addConnector(connector);
@@ -0,0 +1,309 @@
+package com.github.marweck.tomcat.connector;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Connector HTTP compression policy.
+ * <p>
+ * MIME types are matched by prefix, as Tomcat does, so "text/" covers every
+ * text type. Responses are compressed when their type is included and not
+ * excluded, and their length is unknown or greater than the threshold of
+ * their type (the longest matching prefix) or the default minimum size.
+ * <p>
+ * Per-MIME thresholds and exclusions narrower than an included prefix are
+ * not supported by the stock protocol handlers, so the connector then uses
+ * the {@link CompressionPolicyProtocol} variant of the chosen protocol.
+ *
+ * @author Marcio Carvalho
+ */
+public class CompressionPolicy {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(CompressionPolicy.class);
+
+    /**
+     * Text based types worth compressing
+     */
+    private static final String[] DEFAULT_MIME_TYPES = {
+            "text/html", "text/xhtml", "text/xml", "text/css", "text/plain", "text/javascript", "text/csv",
+            "application/xhtml+xml", "application/xml", "application/javascript", "application/json",
+            "application/ld+json", "application/manifest+json", "application/x-ndjson", "application/wasm",
+            "image/svg+xml"};
+
+    /**
+     * Already compressed or streamed types, never worth compressing
+     */
+    private static final String[] DEFAULT_EXCLUDED_MIME_TYPES = {
+            "text/event-stream", "image/png", "image/jpeg", "image/gif", "image/webp", "image/avif", "video/",
+            "audio/", "font/woff", "font/woff2", "application/zip", "application/gzip", "application/pdf"};
+
+    /**
+     * Compression mode
+     */
+    private Mode mode = Mode.ON;
+
+    /**
+     * Default minimum response size, in bytes
+     */
+    private int minSize = 4096;
+
+    /**
+     * Included MIME type prefixes
+     */
+    private final Set<String> mimeTypes = new LinkedHashSet<>(Arrays.asList(DEFAULT_MIME_TYPES));
+
+    /**
+     * Excluded MIME type prefixes
+     */
+    private final Set<String> excludedMimeTypes = new LinkedHashSet<>(Arrays.asList(DEFAULT_EXCLUDED_MIME_TYPES));
+
+    /**
+     * Minimum response size per MIME type prefix
+     */
+    private final Map<String, Integer> thresholds = new LinkedHashMap<>();
+
+    /**
+     * Regular expression of user agents never receiving compressed responses
+     */
+    private String noCompressionUserAgents;
+
+    /**
+     * Compression modes, as the connector compression attribute
+     */
+    public enum Mode {
+
+        /**
+         * Compresses the responses allowed by the policy
+         */
+        ON,
+
+        /**
+         * Compresses every response, whatever its type or size
+         */
+        FORCE
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public CompressionPolicy setMode(Mode mode) {
+        if (mode == null) {
+            throw new IllegalStateException("Compression mode is null");
+        }
+
+        this.mode = mode;
+        return this;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @param minSize
+     *         default minimum response size, in bytes
+     */
+    public CompressionPolicy setMinSize(int minSize) {
+        this.minSize = minSize;
+        return this;
+    }
+
+    public Set<String> getMimeTypes() {
+        return mimeTypes;
+    }
+
+    /**
+     * Replaces the included MIME type prefixes
+     *
+     * @param mimeTypes
+     */
+    public CompressionPolicy setMimeTypes(String... mimeTypes) {
+        this.mimeTypes.clear();
+        return addMimeTypes(mimeTypes);
+    }
+
+    /**
+     * Adds included MIME type prefixes
+     *
+     * @param mimeTypes
+     */
+    public CompressionPolicy addMimeTypes(String... mimeTypes) {
+        for (String mimeType : mimeTypes) {
+            this.mimeTypes.add(normalize(mimeType));
+        }
+
+        return this;
+    }
+
+    public Set<String> getExcludedMimeTypes() {
+        return excludedMimeTypes;
+    }
+
+    /**
+     * Adds excluded MIME type prefixes
+     *
+     * @param mimeTypes
+     */
+    public CompressionPolicy exclude(String... mimeTypes) {
+        for (String mimeType : mimeTypes) {
+            excludedMimeTypes.add(normalize(mimeType));
+        }
+
+        return this;
+    }
+
+    public Map<String, Integer> getThresholds() {
+        return thresholds;
+    }
+
+    /**
+     * Sets the minimum response size of a MIME type prefix, which becomes
+     * included as well
+     *
+     * @param mimeType
+     *         MIME type prefix
+     * @param minSize
+     *         minimum response size, in bytes
+     */
+    public CompressionPolicy setThreshold(String mimeType, int minSize) {
+        thresholds.put(normalize(mimeType), minSize);
+        return this;
+    }
+
+    public String getNoCompressionUserAgents() {
+        return noCompressionUserAgents;
+    }
+
+    /**
+     * @param noCompressionUserAgents
+     *         regular expression of user agents never receiving compressed
+     *         responses
+     */
+    public CompressionPolicy setNoCompressionUserAgents(String noCompressionUserAgents) {
+        this.noCompressionUserAgents = noCompressionUserAgents;
+        return this;
+    }
+
+    /**
+     * Checks whether the stock protocol handlers can enforce this policy by
+     * themselves
+     *
+     * @return true when the {@link CompressionPolicyProtocol} variant is needed
+     */
+    public boolean requiresPolicyProtocol() {
+
+        if (!thresholds.isEmpty()) {
+            return true;
+        }
+
+        for (String excluded : excludedMimeTypes) {
+            for (String included : mimeTypes) {
+                if (excluded.startsWith(included) && !excluded.equals(included)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Applies the policy to the connector
+     *
+     * @param connector
+     */
+    public void configure(Connector connector) {
+
+        Set<String> compressible = new LinkedHashSet<>(mimeTypes);
+        compressible.addAll(thresholds.keySet());
+        compressible.removeAll(excludedMimeTypes);
+
+        int connectorMinSize = minSize;
+
+        for (Integer threshold : thresholds.values()) {
+            connectorMinSize = Math.min(connectorMinSize, threshold);
+        }
+
+        setProperty(connector, "compression", mode.name().toLowerCase(Locale.ENGLISH));
+        setProperty(connector, "compressionMinSize", Integer.toString(connectorMinSize));
+        setProperty(connector, "compressibleMimeType", String.join(",", compressible));
+
+        if (noCompressionUserAgents != null) {
+            setProperty(connector, "noCompressionUserAgents", noCompressionUserAgents);
+        }
+
+        if (connector.getProtocolHandler() instanceof CompressionPolicyProtocol) {
+            ((CompressionPolicyProtocol) connector.getProtocolHandler()).setCompressionPolicy(this);
+        } else if (requiresPolicyProtocol()) {
+            log.warn("Protocol " + connector.getProtocolHandlerClassName() +
+                    " ignores the per MIME type thresholds and exclusions");
+        }
+    }
+
+    /**
+     * Checks a response against the per MIME type thresholds and exclusions.
+     * Type inclusion and the other connector settings are checked by the
+     * protocol handler.
+     *
+     * @param contentType
+     *         response content type, possibly with parameters
+     * @param contentLength
+     *         response length or -1 when unknown
+     * @return
+     */
+    public boolean accept(String contentType, long contentLength) {
+
+        if (mode == Mode.FORCE || contentType == null) {
+            return true;
+        }
+
+        String mimeType = normalize(contentType);
+
+        for (String excluded : excludedMimeTypes) {
+            if (mimeType.startsWith(excluded)) {
+                return false;
+            }
+        }
+
+        String match = null;
+
+        for (String prefix : thresholds.keySet()) {
+            if (mimeType.startsWith(prefix) && (match == null || prefix.length() > match.length())) {
+                match = prefix;
+            }
+        }
+
+        int threshold = match == null ? minSize : thresholds.get(match);
+
+        return contentLength == -1 || contentLength > threshold;
+    }
+
+    private static String normalize(String mimeType) {
+
+        int semicolon = mimeType.indexOf(';');
+
+        if (semicolon != -1) {
+            mimeType = mimeType.substring(0, semicolon);
+        }
+
+        return mimeType.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private void setProperty(Connector connector, String name, String value) {
+        if (!connector.setProperty(name, value)) {
+            log.warn("Connector property not supported by " + connector.getProtocolHandlerClassName() + ": " + name);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.marweck.tomcat.connector;
+
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.Http11Nio2Protocol;
+
+/**
+ * NIO2 protocol handler enforcing a {@link CompressionPolicy}
+ *
+ * @author Marcio Carvalho
+ */
+public class CompressionPolicyNio2Protocol extends Http11Nio2Protocol implements CompressionPolicyProtocol {
+
+    private CompressionPolicy compressionPolicy;
+
+    @Override
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    @Override
+    public boolean useCompression(Request request, Response response) {
+        return (compressionPolicy == null ||
+                compressionPolicy.accept(response.getContentType(), response.getContentLengthLong())) &&
+                super.useCompression(request, response);
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.marweck.tomcat.connector;
+
+/**
+ * Protocol handler enforcing a {@link CompressionPolicy} on top of the stock
+ * compression settings
+ *
+ * @author Marcio Carvalho
+ */
+public interface CompressionPolicyProtocol {
+
+    /**
+     * @param compressionPolicy
+     *         policy checked before compressing a response
+     */
+    void setCompressionPolicy(CompressionPolicy compressionPolicy);
+}
@@ -0,0 +1,368 @@
+package com.github.marweck.tomcat.connector;
+
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Server;
+import org.apache.catalina.Service;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.AprLifecycleListener;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Connector configuration: the protocol handler and its protocol specific
+ * settings.
+ * <p>
+ * Usage:
+ * <p>
+ * <pre>
+ * new Tomcat9Launcher(8080, "app")
+ * 	.setConnectorConfig(new ConnectorConfig().setProtocol(ConnectorProtocol.NIO2))
+ * 	.addConnector(new ConnectorConfig().setPort(9090).setAddress("127.0.0.1"))
+ * 	.launch();
+ * </pre>
+ *
+ * @author Marcio Carvalho
+ */
+public class ConnectorConfig {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(ConnectorConfig.class);
+
+    /**
+     * JSSE compatible OpenSSL implementation, used by the NIO and NIO2 protocols
+     */
+    private static final String OPENSSL_IMPLEMENTATION = "org.apache.tomcat.util.net.openssl.OpenSSLImplementation";
+
+    /**
+     * Connector port. The main connector uses the launcher port when null
+     */
+    private Integer port;
+
+    /**
+     * Address the connector binds to. All addresses when null
+     */
+    private String address;
+
+    /**
+     * Protocol handler. NIO by default
+     */
+    private ConnectorProtocol protocol = ConnectorProtocol.NIO;
+
+    /**
+     * Determines whether the native OpenSSL engine must be loaded
+     */
+    private boolean openSsl;
+
+    /**
+     * NIO only: poller selector timeout in milliseconds
+     */
+    private Long selectorTimeout;
+
+    /**
+     * NIO only: priority of the poller threads
+     */
+    private Integer pollerThreadPriority;
+
+    /**
+     * APR only: poller wait time in microseconds
+     */
+    private Integer pollTime;
+
+    /**
+     * APR only: determines whether TCP_DEFER_ACCEPT must be used
+     */
+    private Boolean deferAccept;
+
+    /**
+     * Thread pool and backlog tuning
+     */
+    private ConnectorTuning tuning = new ConnectorTuning();
+
+    /**
+     * HTTP/2 upgrade protocol. Disabled when null
+     */
+    private Http2Config http2;
+
+    /**
+     * TLS termination. Cleartext when null
+     */
+    private TlsConfig tls;
+
+    /**
+     * Any other protocol handler property
+     */
+    private final Map<String, String> properties = new LinkedHashMap<>();
+
+    public Integer getPort() {
+        return port;
+    }
+
+    /**
+     * @param port
+     *         Connector port. Required for additional connectors; the main
+     *         connector uses the launcher port when not set
+     */
+    public ConnectorConfig setPort(Integer port) {
+        this.port = port;
+        return this;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @param address
+     *         Address the connector binds to, such as 127.0.0.1 for an
+     *         internal admin port. All addresses when not set
+     */
+    public ConnectorConfig setAddress(String address) {
+        this.address = address;
+        return this;
+    }
+
+    public ConnectorProtocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * @param protocol
+     *         Protocol handler. NIO by default
+     */
+    public ConnectorConfig setProtocol(ConnectorProtocol protocol) {
+        if (protocol == null) {
+            throw new IllegalStateException("Connector protocol is null");
+        }
+
+        this.protocol = protocol;
+        return this;
+    }
+
+    public boolean isOpenSsl() {
+        return openSsl;
+    }
+
+    /**
+     * @param openSsl
+     *         Loads the native OpenSSL engine. Implied by the APR protocol and
+     *         by the OpenSSL TLS implementation
+     */
+    public ConnectorConfig setOpenSsl(boolean openSsl) {
+        this.openSsl = openSsl;
+        return this;
+    }
+
+    public Long getSelectorTimeout() {
+        return selectorTimeout;
+    }
+
+    /**
+     * @param selectorTimeout
+     *         NIO only: poller selector timeout in milliseconds
+     */
+    public ConnectorConfig setSelectorTimeout(Long selectorTimeout) {
+        this.selectorTimeout = selectorTimeout;
+        return this;
+    }
+
+    public Integer getPollerThreadPriority() {
+        return pollerThreadPriority;
+    }
+
+    /**
+     * @param pollerThreadPriority
+     *         NIO only: priority of the poller threads
+     */
+    public ConnectorConfig setPollerThreadPriority(Integer pollerThreadPriority) {
+        this.pollerThreadPriority = pollerThreadPriority;
+        return this;
+    }
+
+    public Integer getPollTime() {
+        return pollTime;
+    }
+
+    /**
+     * @param pollTime
+     *         APR only: poller wait time in microseconds
+     */
+    public ConnectorConfig setPollTime(Integer pollTime) {
+        this.pollTime = pollTime;
+        return this;
+    }
+
+    public Boolean getDeferAccept() {
+        return deferAccept;
+    }
+
+    /**
+     * @param deferAccept
+     *         APR only: determines whether TCP_DEFER_ACCEPT must be used
+     */
+    public ConnectorConfig setDeferAccept(Boolean deferAccept) {
+        this.deferAccept = deferAccept;
+        return this;
+    }
+
+    public ConnectorTuning getTuning() {
+        return tuning;
+    }
+
+    /**
+     * @param tuning
+     *         Thread pool and backlog tuning
+     */
+    public ConnectorConfig setTuning(ConnectorTuning tuning) {
+        if (tuning == null) {
+            throw new IllegalStateException("Connector tuning is null");
+        }
+
+        this.tuning = tuning;
+        return this;
+    }
+
+    public Http2Config getHttp2() {
+        return http2;
+    }
+
+    /**
+     * @param http2
+     *         Enables HTTP/2 (h2c on cleartext, h2 over TLS). Null disables it
+     */
+    public ConnectorConfig setHttp2(Http2Config http2) {
+        this.http2 = http2;
+        return this;
+    }
+
+    public TlsConfig getTls() {
+        return tls;
+    }
+
+    /**
+     * @param tls
+     *         Terminates TLS on this connector. Null keeps it cleartext
+     */
+    public ConnectorConfig setTls(TlsConfig tls) {
+        this.tls = tls;
+        return this;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Sets any other protocol handler property, as it would be set on the
+     * server.xml Connector element
+     *
+     * @param name
+     *         property name
+     * @param value
+     *         property value
+     */
+    public ConnectorConfig setProperty(String name, String value) {
+        properties.put(name, value);
+        return this;
+    }
+
+    /**
+     * Creates the connector for the configured protocol, tuning and TLS. When
+     * the native library is required but not available, the connector falls
+     * back to NIO and JSSE.
+     *
+     * @param service
+     *         Tomcat service, where the shared executor and the native library
+     *         listener are registered
+     * @param compressionPolicy
+     *         HTTP compression policy, or null to disable compression
+     * @return
+     */
+    public Connector createConnector(Service service, CompressionPolicy compressionPolicy) {
+
+        Server server = service.getServer();
+
+        ConnectorProtocol effective = protocol;
+        boolean nativeAvailable = false;
+        boolean openSsl = this.openSsl || (tls != null && tls.getImplementation() == TlsConfig.Implementation.OPENSSL);
+
+        if (protocol == ConnectorProtocol.APR || openSsl) {
+            nativeAvailable = registerAprListener(server);
+
+            if (!nativeAvailable) {
+                log.warn("Tomcat Native library not available, falling back to " +
+                        (protocol == ConnectorProtocol.APR ? "the NIO protocol" : "JSSE"));
+                effective = protocol == ConnectorProtocol.APR ? ConnectorProtocol.NIO : protocol;
+            }
+        }
+
+        Connector connector = new Connector(compressionPolicy != null && compressionPolicy.requiresPolicyProtocol() ?
+                effective.getCompressionPolicyClassName() : effective.getClassName());
+
+        if (openSsl && nativeAvailable && effective != ConnectorProtocol.APR) {
+            setProperty(connector, "sslImplementationName", OPENSSL_IMPLEMENTATION);
+        }
+
+        setProperty(connector, "address", address);
+
+        if (effective == ConnectorProtocol.NIO) {
+            setProperty(connector, "selectorTimeout", selectorTimeout);
+            setProperty(connector, "pollerThreadPriority", pollerThreadPriority);
+        } else if (effective == ConnectorProtocol.APR) {
+            setProperty(connector, "pollTime", pollTime);
+            setProperty(connector, "deferAccept", deferAccept);
+        }
+
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            setProperty(connector, property.getKey(), property.getValue());
+        }
+
+        tuning.configure(service, connector);
+
+        if (tls != null) {
+            tls.configure(connector);
+        }
+
+        if (compressionPolicy != null) {
+            compressionPolicy.configure(connector);
+        }
+
+        if (http2 != null) {
+            http2.configure(connector);
+        }
+
+        return connector;
+    }
+
+    /**
+     * Registers the native library listener on the server, if not registered
+     * yet, and checks the library availability
+     *
+     * @param server
+     * @return
+     */
+    private boolean registerAprListener(Server server) {
+
+        boolean registered = false;
+
+        for (LifecycleListener listener : server.findLifecycleListeners()) {
+            registered |= listener instanceof AprLifecycleListener;
+        }
+
+        if (!registered) {
+            server.addLifecycleListener(new AprLifecycleListener());
+        }
+
+        return AprLifecycleListener.isAprAvailable();
+    }
+
+    private void setProperty(Connector connector, String name, Object value) {
+        if (value != null && !connector.setProperty(name, value.toString())) {
+            log.warn("Connector property not supported by " + connector.getProtocolHandlerClassName() + ": " + name);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.marweck.tomcat.connector;
+
+/**
+ * Protocol handlers available for the embedded connector
+ *
+ * @author Marcio Carvalho
+ */
+public enum ConnectorProtocol {
+
+    /**
+     * Non blocking IO protocol handler. Tomcat default
+     */
+    NIO("org.apache.coyote.http11.Http11NioProtocol", CompressionPolicyNioProtocol.class.getName()),
+
+    /**
+     * Asynchronous IO (NIO.2) protocol handler
+     */
+    NIO2("org.apache.coyote.http11.Http11Nio2Protocol", CompressionPolicyNio2Protocol.class.getName()),
+
+    /**
+     * Native protocol handler. Requires the Tomcat Native library (libtcnative)
+     */
+    APR("org.apache.coyote.http11.Http11AprProtocol", CompressionPolicyAprProtocol.class.getName());
+
+    /**
+     * Protocol handler class name
+     */
+    private final String className;
+
+    /**
+     * Protocol handler class name enforcing a compression policy
+     */
+    private final String compressionPolicyClassName;
+
+    ConnectorProtocol(String className, String compressionPolicyClassName) {
+        this.className = className;
+        this.compressionPolicyClassName = compressionPolicyClassName;
+    }
+
+    /**
+     * @return the protocol handler class name
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the protocol handler class name enforcing a compression policy
+     */
+    public String getCompressionPolicyClassName() {
+        return compressionPolicyClassName;
+    }
+}
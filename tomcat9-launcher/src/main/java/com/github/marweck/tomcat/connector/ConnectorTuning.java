@@ -0,0 +1,291 @@
+package com.github.marweck.tomcat.connector;
+
+import org.apache.catalina.Executor;
+import org.apache.catalina.Service;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardThreadExecutor;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Connector thread pool and backlog tuning. Every setting left unset keeps
+ * the Tomcat default.
+ * <p>
+ * When the shared executor is enabled, request processing runs on a
+ * {@link StandardThreadExecutor} registered on the service, so it can be
+ * shared by name between connectors. The thread settings are then applied to
+ * the executor instead of the connector internal pool.
+ * <p>
+ * When virtual threads are enabled and the JVM supports them, every request
+ * runs on its own virtual thread and the thread settings are ignored. The
+ * number of concurrent requests is then bounded by maxConnections only.
+ *
+ * @author Marcio Carvalho
+ */
+public class ConnectorTuning {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(ConnectorTuning.class);
+
+    /**
+     * Default shared executor name, as in the stock server.xml
+     */
+    public static final String DEFAULT_EXECUTOR_NAME = "tomcatThreadPool";
+
+    /**
+     * Maximum number of request processing threads
+     */
+    private Integer maxThreads;
+
+    /**
+     * Minimum number of threads always kept alive
+     */
+    private Integer minSpareThreads;
+
+    /**
+     * Maximum queue length for incoming connections when all threads are busy
+     */
+    private Integer acceptCount;
+
+    /**
+     * Maximum number of connections accepted and processed at the same time
+     */
+    private Integer maxConnections;
+
+    /**
+     * Milliseconds to wait for the request line after accepting a connection
+     */
+    private Integer connectionTimeout;
+
+    /**
+     * Milliseconds to wait for another request before closing a keep-alive
+     * connection
+     */
+    private Integer keepAliveTimeout;
+
+    /**
+     * Determines whether a shared executor backs the connector
+     */
+    private boolean sharedExecutor;
+
+    /**
+     * Determines whether requests must run on virtual threads
+     */
+    private boolean virtualThreads;
+
+    /**
+     * Shared executor name
+     */
+    private String executorName = DEFAULT_EXECUTOR_NAME;
+
+    /**
+     * Shared executor only: milliseconds before an idle thread above
+     * minSpareThreads is shut down
+     */
+    private Integer maxIdleTime;
+
+    /**
+     * Shared executor only: maximum number of queued tasks
+     */
+    private Integer maxQueueSize;
+
+    public Integer getMaxThreads() {
+        return maxThreads;
+    }
+
+    public ConnectorTuning setMaxThreads(Integer maxThreads) {
+        this.maxThreads = maxThreads;
+        return this;
+    }
+
+    public Integer getMinSpareThreads() {
+        return minSpareThreads;
+    }
+
+    public ConnectorTuning setMinSpareThreads(Integer minSpareThreads) {
+        this.minSpareThreads = minSpareThreads;
+        return this;
+    }
+
+    public Integer getAcceptCount() {
+        return acceptCount;
+    }
+
+    public ConnectorTuning setAcceptCount(Integer acceptCount) {
+        this.acceptCount = acceptCount;
+        return this;
+    }
+
+    public Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    public ConnectorTuning setMaxConnections(Integer maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public Integer getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public ConnectorTuning setConnectionTimeout(Integer connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+        return this;
+    }
+
+    public Integer getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    public ConnectorTuning setKeepAliveTimeout(Integer keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+        return this;
+    }
+
+    public boolean isSharedExecutor() {
+        return sharedExecutor;
+    }
+
+    /**
+     * @param sharedExecutor
+     *         Backs the connector with a shared executor registered on the
+     *         service
+     */
+    public ConnectorTuning setSharedExecutor(boolean sharedExecutor) {
+        this.sharedExecutor = sharedExecutor;
+        return this;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @param virtualThreads
+     *         Runs every request on its own virtual thread when the JVM
+     *         supports them (JDK 21+). Otherwise the platform thread pool is
+     *         kept
+     */
+    public ConnectorTuning setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    public String getExecutorName() {
+        return executorName;
+    }
+
+    /**
+     * @param executorName
+     *         Shared executor name. Connectors using the same name share the
+     *         same executor
+     */
+    public ConnectorTuning setExecutorName(String executorName) {
+        if (executorName == null) {
+            throw new IllegalStateException("Executor name is null");
+        }
+
+        this.executorName = executorName;
+        return this;
+    }
+
+    public Integer getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public ConnectorTuning setMaxIdleTime(Integer maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+        return this;
+    }
+
+    public Integer getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public ConnectorTuning setMaxQueueSize(Integer maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+        return this;
+    }
+
+    /**
+     * Applies the tuning to the connector, creating or reusing the shared
+     * executor when enabled. Must be called before the connector is
+     * initialized.
+     *
+     * @param service
+     *         Tomcat service, where the shared executor is registered
+     * @param connector
+     *         connector to tune
+     */
+    public void configure(Service service, Connector connector) {
+
+        boolean virtual = virtualThreads && VirtualThreadExecutor.isSupported();
+
+        if (virtualThreads && !virtual) {
+            log.warn("Virtual threads not supported by this JVM, falling back to the platform thread pool");
+        }
+
+        if (virtual) {
+            connector.getProtocolHandler().setExecutor(new VirtualThreadExecutor(executorName + "-virtual-"));
+        } else if (sharedExecutor) {
+            connector.getProtocolHandler().setExecutor(getOrCreateExecutor(service));
+        } else {
+            setProperty(connector, "maxThreads", maxThreads);
+            setProperty(connector, "minSpareThreads", minSpareThreads);
+        }
+
+        setProperty(connector, "acceptCount", acceptCount);
+        setProperty(connector, "maxConnections", maxConnections);
+        setProperty(connector, "connectionTimeout", connectionTimeout);
+        setProperty(connector, "keepAliveTimeout", keepAliveTimeout);
+    }
+
+    /**
+     * Looks for the named executor on the service, creating and registering
+     * it when absent
+     *
+     * @param service
+     * @return
+     */
+    private Executor getOrCreateExecutor(Service service) {
+
+        Executor executor = service.getExecutor(executorName);
+
+        if (executor != null) {
+            return executor;
+        }
+
+        StandardThreadExecutor standardExecutor = new StandardThreadExecutor();
+        standardExecutor.setName(executorName);
+        standardExecutor.setNamePrefix(executorName + "-exec-");
+
+        if (maxThreads != null) {
+            standardExecutor.setMaxThreads(maxThreads);
+        }
+
+        if (minSpareThreads != null) {
+            standardExecutor.setMinSpareThreads(minSpareThreads);
+        }
+
+        if (maxIdleTime != null) {
+            standardExecutor.setMaxIdleTime(maxIdleTime);
+        }
+
+        if (maxQueueSize != null) {
+            standardExecutor.setMaxQueueSize(maxQueueSize);
+        }
+
+        service.addExecutor(standardExecutor);
+
+        return standardExecutor;
+    }
+
+    private void setProperty(Connector connector, String name, Integer value) {
+        if (value != null && !connector.setProperty(name, value.toString())) {
+            log.warn("Connector property not supported by " + connector.getProtocolHandlerClassName() + ": " + name);
+        }
+    }
+}
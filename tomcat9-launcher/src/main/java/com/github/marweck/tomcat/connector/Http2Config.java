@@ -0,0 +1,157 @@
+package com.github.marweck.tomcat.connector;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.http2.Http2Protocol;
+
+/**
+ * HTTP/2 upgrade protocol configuration. Every setting left unset keeps the
+ * Tomcat default.
+ * <p>
+ * On a cleartext connector HTTP/2 is negotiated through the h2c upgrade or
+ * prior knowledge; on a TLS connector it is negotiated through ALPN (h2).
+ * Header compression (HPACK) is always on; its cost is bounded by the header
+ * count and size limits.
+ *
+ * @author Marcio Carvalho
+ */
+public class Http2Config {
+
+    /**
+     * Maximum number of concurrent streams per connection
+     */
+    private Long maxConcurrentStreams;
+
+    /**
+     * Maximum number of streams of a connection executing at the same time
+     */
+    private Integer maxConcurrentStreamExecution;
+
+    /**
+     * Initial flow control window size, in bytes
+     */
+    private Integer initialWindowSize;
+
+    /**
+     * Maximum number of headers of a request
+     */
+    private Integer maxHeaderCount;
+
+    /**
+     * Maximum decoded size of the headers of a request, in bytes
+     */
+    private Integer maxHeaderSize;
+
+    /**
+     * Milliseconds a connection may stay idle without any open stream
+     */
+    private Long keepAliveTimeout;
+
+    /**
+     * Milliseconds to wait for data on a stream
+     */
+    private Long streamReadTimeout;
+
+    public Long getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    public Http2Config setMaxConcurrentStreams(Long maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        return this;
+    }
+
+    public Integer getMaxConcurrentStreamExecution() {
+        return maxConcurrentStreamExecution;
+    }
+
+    public Http2Config setMaxConcurrentStreamExecution(Integer maxConcurrentStreamExecution) {
+        this.maxConcurrentStreamExecution = maxConcurrentStreamExecution;
+        return this;
+    }
+
+    public Integer getInitialWindowSize() {
+        return initialWindowSize;
+    }
+
+    public Http2Config setInitialWindowSize(Integer initialWindowSize) {
+        this.initialWindowSize = initialWindowSize;
+        return this;
+    }
+
+    public Integer getMaxHeaderCount() {
+        return maxHeaderCount;
+    }
+
+    public Http2Config setMaxHeaderCount(Integer maxHeaderCount) {
+        this.maxHeaderCount = maxHeaderCount;
+        return this;
+    }
+
+    public Integer getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    public Http2Config setMaxHeaderSize(Integer maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+        return this;
+    }
+
+    public Long getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    public Http2Config setKeepAliveTimeout(Long keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+        return this;
+    }
+
+    public Long getStreamReadTimeout() {
+        return streamReadTimeout;
+    }
+
+    public Http2Config setStreamReadTimeout(Long streamReadTimeout) {
+        this.streamReadTimeout = streamReadTimeout;
+        return this;
+    }
+
+    /**
+     * Adds the HTTP/2 upgrade protocol to the connector
+     *
+     * @param connector
+     *         connector to upgrade
+     */
+    public void configure(Connector connector) {
+
+        Http2Protocol http2 = new Http2Protocol();
+
+        if (maxConcurrentStreams != null) {
+            http2.setMaxConcurrentStreams(maxConcurrentStreams);
+        }
+
+        if (maxConcurrentStreamExecution != null) {
+            http2.setMaxConcurrentStreamExecution(maxConcurrentStreamExecution);
+        }
+
+        if (initialWindowSize != null) {
+            http2.setInitialWindowSize(initialWindowSize);
+        }
+
+        if (maxHeaderCount != null) {
+            http2.setMaxHeaderCount(maxHeaderCount);
+        }
+
+        if (maxHeaderSize != null) {
+            http2.setMaxHeaderSize(maxHeaderSize);
+        }
+
+        if (keepAliveTimeout != null) {
+            http2.setKeepAliveTimeout(keepAliveTimeout);
+        }
+
+        if (streamReadTimeout != null) {
+            http2.setStreamReadTimeout(streamReadTimeout);
+        }
+
+        connector.addUpgradeProtocol(http2);
+    }
+}
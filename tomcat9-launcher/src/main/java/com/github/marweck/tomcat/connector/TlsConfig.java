@@ -0,0 +1,354 @@
+package com.github.marweck.tomcat.connector;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.tomcat.util.net.SSLHostConfig;
+import org.apache.tomcat.util.net.SSLHostConfigCertificate;
+
+/**
+ * TLS termination configuration. Every setting left unset keeps the Tomcat
+ * default.
+ * <p>
+ * The certificate is read either from a keystore or from PEM files.
+ * <p>
+ * Usage:
+ * <p>
+ * <pre>
+ * new ConnectorConfig()
+ * 	.setPort(8443)
+ * 	.setTls(new TlsConfig()
+ * 		.setCertificateFile("conf/server.crt")
+ * 		.setCertificateKeyFile("conf/server.key")
+ * 		.setImplementation(TlsConfig.Implementation.OPENSSL));
+ * </pre>
+ *
+ * @author Marcio Carvalho
+ */
+public class TlsConfig {
+
+    /**
+     * TLS implementations
+     */
+    public enum Implementation {
+
+        /**
+         * Java Secure Socket Extension, always available
+         */
+        JSSE,
+
+        /**
+         * OpenSSL through the Tomcat Native library. Falls back to JSSE when
+         * the library is not available
+         */
+        OPENSSL
+    }
+
+    /**
+     * TLS implementation
+     */
+    private Implementation implementation = Implementation.JSSE;
+
+    /**
+     * Keystore file
+     */
+    private String keystoreFile;
+
+    /**
+     * Keystore password
+     */
+    private String keystorePassword;
+
+    /**
+     * Keystore type, such as JKS or PKCS12
+     */
+    private String keystoreType;
+
+    /**
+     * Alias of the key within the keystore
+     */
+    private String keyAlias;
+
+    /**
+     * PEM certificate file
+     */
+    private String certificateFile;
+
+    /**
+     * PEM private key file
+     */
+    private String certificateKeyFile;
+
+    /**
+     * PEM certificate chain file
+     */
+    private String certificateChainFile;
+
+    /**
+     * Private key password
+     */
+    private String certificateKeyPassword;
+
+    /**
+     * Enabled protocols, such as "TLSv1.2+TLSv1.3"
+     */
+    private String protocols;
+
+    /**
+     * Enabled ciphers, in OpenSSL syntax or as a list of JSSE cipher names
+     */
+    private String ciphers;
+
+    /**
+     * Determines whether the server cipher order is preferred
+     */
+    private Boolean honorCipherOrder;
+
+    /**
+     * Number of SSL sessions kept in the session cache
+     */
+    private Integer sessionCacheSize;
+
+    /**
+     * Seconds an SSL session is kept in the session cache
+     */
+    private Integer sessionTimeout;
+
+    /**
+     * Determines whether session tickets are issued
+     */
+    private boolean sessionTickets = true;
+
+    public Implementation getImplementation() {
+        return implementation;
+    }
+
+    public TlsConfig setImplementation(Implementation implementation) {
+        if (implementation == null) {
+            throw new IllegalStateException("TLS implementation is null");
+        }
+
+        this.implementation = implementation;
+        return this;
+    }
+
+    public String getKeystoreFile() {
+        return keystoreFile;
+    }
+
+    public TlsConfig setKeystoreFile(String keystoreFile) {
+        this.keystoreFile = keystoreFile;
+        return this;
+    }
+
+    public String getKeystorePassword() {
+        return keystorePassword;
+    }
+
+    public TlsConfig setKeystorePassword(String keystorePassword) {
+        this.keystorePassword = keystorePassword;
+        return this;
+    }
+
+    public String getKeystoreType() {
+        return keystoreType;
+    }
+
+    public TlsConfig setKeystoreType(String keystoreType) {
+        this.keystoreType = keystoreType;
+        return this;
+    }
+
+    public String getKeyAlias() {
+        return keyAlias;
+    }
+
+    public TlsConfig setKeyAlias(String keyAlias) {
+        this.keyAlias = keyAlias;
+        return this;
+    }
+
+    public String getCertificateFile() {
+        return certificateFile;
+    }
+
+    public TlsConfig setCertificateFile(String certificateFile) {
+        this.certificateFile = certificateFile;
+        return this;
+    }
+
+    public String getCertificateKeyFile() {
+        return certificateKeyFile;
+    }
+
+    public TlsConfig setCertificateKeyFile(String certificateKeyFile) {
+        this.certificateKeyFile = certificateKeyFile;
+        return this;
+    }
+
+    public String getCertificateChainFile() {
+        return certificateChainFile;
+    }
+
+    public TlsConfig setCertificateChainFile(String certificateChainFile) {
+        this.certificateChainFile = certificateChainFile;
+        return this;
+    }
+
+    public String getCertificateKeyPassword() {
+        return certificateKeyPassword;
+    }
+
+    public TlsConfig setCertificateKeyPassword(String certificateKeyPassword) {
+        this.certificateKeyPassword = certificateKeyPassword;
+        return this;
+    }
+
+    public String getProtocols() {
+        return protocols;
+    }
+
+    /**
+     * @param protocols
+     *         enabled protocols, such as "TLSv1.2+TLSv1.3"
+     */
+    public TlsConfig setProtocols(String protocols) {
+        this.protocols = protocols;
+        return this;
+    }
+
+    public String getCiphers() {
+        return ciphers;
+    }
+
+    /**
+     * @param ciphers
+     *         enabled ciphers, in OpenSSL syntax or as a list of JSSE cipher
+     *         names
+     */
+    public TlsConfig setCiphers(String ciphers) {
+        this.ciphers = ciphers;
+        return this;
+    }
+
+    public Boolean getHonorCipherOrder() {
+        return honorCipherOrder;
+    }
+
+    public TlsConfig setHonorCipherOrder(Boolean honorCipherOrder) {
+        this.honorCipherOrder = honorCipherOrder;
+        return this;
+    }
+
+    public Integer getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    /**
+     * @param sessionCacheSize
+     *         number of SSL sessions kept for resumption
+     */
+    public TlsConfig setSessionCacheSize(Integer sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+        return this;
+    }
+
+    public Integer getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * @param sessionTimeout
+     *         seconds an SSL session is kept for resumption
+     */
+    public TlsConfig setSessionTimeout(Integer sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+        return this;
+    }
+
+    public boolean isSessionTickets() {
+        return sessionTickets;
+    }
+
+    /**
+     * @param sessionTickets
+     *         Issues session tickets (RFC 5077). Only the OpenSSL
+     *         implementation can disable them
+     */
+    public TlsConfig setSessionTickets(boolean sessionTickets) {
+        this.sessionTickets = sessionTickets;
+        return this;
+    }
+
+    /**
+     * Turns the connector into a TLS connector
+     *
+     * @param connector
+     *         connector to secure
+     */
+    public void configure(Connector connector) {
+
+        if (keystoreFile == null && certificateFile == null) {
+            throw new IllegalStateException("TLS requires a keystore or a certificate file");
+        }
+
+        SSLHostConfig hostConfig = new SSLHostConfig();
+
+        if (protocols != null) {
+            hostConfig.setProtocols(protocols);
+        }
+
+        if (ciphers != null) {
+            hostConfig.setCiphers(ciphers);
+        }
+
+        if (honorCipherOrder != null) {
+            hostConfig.setHonorCipherOrder(honorCipherOrder);
+        }
+
+        if (sessionCacheSize != null) {
+            hostConfig.setSessionCacheSize(sessionCacheSize);
+        }
+
+        if (sessionTimeout != null) {
+            hostConfig.setSessionTimeout(sessionTimeout);
+        }
+
+        hostConfig.setDisableSessionTickets(!sessionTickets);
+
+        SSLHostConfigCertificate certificate =
+                new SSLHostConfigCertificate(hostConfig, SSLHostConfigCertificate.Type.UNDEFINED);
+
+        if (keystoreFile != null) {
+            certificate.setCertificateKeystoreFile(keystoreFile);
+
+            if (keystorePassword != null) {
+                certificate.setCertificateKeystorePassword(keystorePassword);
+            }
+
+            if (keystoreType != null) {
+                certificate.setCertificateKeystoreType(keystoreType);
+            }
+
+            if (keyAlias != null) {
+                certificate.setCertificateKeyAlias(keyAlias);
+            }
+        } else {
+            certificate.setCertificateFile(certificateFile);
+            certificate.setCertificateKeyFile(certificateKeyFile);
+
+            if (certificateChainFile != null) {
+                certificate.setCertificateChainFile(certificateChainFile);
+            }
+        }
+
+        if (certificateKeyPassword != null) {
+            certificate.setCertificateKeyPassword(certificateKeyPassword);
+        }
+
+        hostConfig.addCertificate(certificate);
+
+        connector.setScheme("https");
+        connector.setSecure(true);
+        connector.setProperty("SSLEnabled", "true");
+        connector.addSslHostConfig(hostConfig);
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.marweck.tomcat.connector;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executor starting one JDK 21 virtual thread per task.
+ * <p>
+ * The virtual thread API is looked up by reflection, so the launcher still
+ * runs on older JVMs. Check {@link #isSupported()} before creating it.
+ *
+ * @author Marcio Carvalho
+ */
+public class VirtualThreadExecutor implements Executor {
+
+    /**
+     * Virtual thread factory
+     */
+    private final ThreadFactory threadFactory;
+
+    /**
+     * Creates the executor
+     *
+     * @param namePrefix
+     *         virtual thread name prefix
+     * @throws IllegalStateException
+     *         when the JVM does not support virtual threads
+     */
+    public VirtualThreadExecutor(String namePrefix) {
+        this.threadFactory = createThreadFactory(namePrefix);
+
+        if (threadFactory == null) {
+            throw new IllegalStateException("Virtual threads are not supported by this JVM");
+        }
+    }
+
+    /**
+     * Checks whether the running JVM supports virtual threads
+     *
+     * @return
+     */
+    public static boolean isSupported() {
+        return createThreadFactory("probe-") != null;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        threadFactory.newThread(command).start();
+    }
+
+    /**
+     * Thread.ofVirtual().name(prefix, 0).factory() or null when not available,
+     * including JDKs where virtual threads are still a disabled preview feature
+     *
+     * @param namePrefix
+     * @return
+     */
+    private static ThreadFactory createThreadFactory(String namePrefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            Method factory = builderClass.getMethod("factory");
+
+            Object builder = name.invoke(ofVirtual.invoke(null), namePrefix, 0L);
+
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
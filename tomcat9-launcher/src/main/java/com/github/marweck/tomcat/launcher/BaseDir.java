@@ -0,0 +1,143 @@
+package com.github.marweck.tomcat.launcher;
+
+import org.apache.catalina.util.ServerInfo;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Persistent Tomcat base directory.
+ * <p>
+ * The base directory is kept across restarts, so the compiled JSPs, the
+ * pre-compressed resources and the exploded WARs survive them. The work and
+ * pre-compressed directories are cleared whenever the version key changes: by
+ * default the Tomcat version plus the name, size and modification time of the
+ * archive the launcher runs from. The exploded WARs are keyed by their own
+ * content.
+ *
+ * @author Marcio Carvalho
+ */
+public class BaseDir {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(BaseDir.class);
+
+    /**
+     * File keeping the version key the work directory was created with
+     */
+    private static final String VERSION_FILE = "version";
+
+    /**
+     * Directories cleared when the version key changes
+     */
+    private static final String[] VERSIONED_DIRS = {"work", "precompressed"};
+
+    /**
+     * Base directory, or null for one per working directory and port in the
+     * temporary directory
+     */
+    private final File directory;
+
+    /**
+     * Version key, or null for the default one
+     */
+    private String version;
+
+    /**
+     * Constructor taking the base directory location
+     *
+     * @param directory
+     *         base directory, created when missing
+     */
+    public BaseDir(File directory) {
+        if (directory == null) {
+            throw new IllegalStateException("Base directory is null");
+        }
+
+        this.directory = directory;
+    }
+
+    /**
+     * Constructor keeping the base directory in the temporary directory, one
+     * per working directory and port
+     */
+    public BaseDir() {
+        this.directory = null;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @param version
+     *         version key, such as the application build version. The work
+     *         and pre-compressed directories are cleared when it changes
+     */
+    public BaseDir setVersion(String version) {
+        this.version = version;
+        return this;
+    }
+
+    /**
+     * Creates the base directory if missing, clearing its work and
+     * pre-compressed directories when the version key has changed
+     *
+     * @param port
+     *         launcher port
+     * @return the base directory
+     */
+    public File prepare(int port) {
+
+        File base = directory != null ? directory : new File(System.getProperty("java.io.tmpdir"),
+                "tomcat-base-" + Integer.toHexString(new File("").getAbsolutePath().hashCode()) + "-" + port);
+
+        String current = version != null ? version : getDefaultVersion();
+        File versionFile = new File(base, VERSION_FILE);
+
+        try {
+            Files.createDirectories(base.toPath());
+
+            String previous = versionFile.isFile() ?
+                    new String(Files.readAllBytes(versionFile.toPath()), StandardCharsets.UTF_8) : null;
+
+            if (!current.equals(previous)) {
+                if (previous != null) {
+                    log.info("Version changed from " + previous + " to " + current + ", clearing the cached directories");
+                }
+
+                for (String dir : VERSIONED_DIRS) {
+                    PathUtil.deleteTree(new File(base, dir));
+                }
+
+                Files.write(versionFile.toPath(), current.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to prepare the base directory " + base, e);
+        }
+
+        return base;
+    }
+
+    /**
+     * @return Tomcat version plus the launcher archive name, size and
+     * modification time
+     */
+    private String getDefaultVersion() {
+
+        String key = "tomcat " + ServerInfo.getServerNumber();
+        File archive = PathUtil.getCodeSourceArchive();
+
+        if (archive != null && archive.isFile()) {
+            key += ", " + archive.getName() + ":" + archive.length() + ":" + archive.lastModified();
+        }
+
+        return key;
+    }
+}
@@ -0,0 +1,603 @@
+package com.github.marweck.tomcat.launcher;
+
+import org.apache.catalina.Context;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.bcel.classfile.AnnotationEntry;
+import org.apache.tomcat.util.bcel.classfile.ArrayElementValue;
+import org.apache.tomcat.util.bcel.classfile.ClassFormatException;
+import org.apache.tomcat.util.bcel.classfile.ClassParser;
+import org.apache.tomcat.util.bcel.classfile.ElementValue;
+import org.apache.tomcat.util.bcel.classfile.ElementValuePair;
+import org.apache.tomcat.util.bcel.classfile.JavaClass;
+import org.apache.tomcat.util.scan.StandardJarScanFilter;
+import org.apache.tomcat.util.scan.StandardJarScanner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Fast-start JAR scanning.
+ * <p>
+ * On the first start, every JAR of the classpath and of WEB-INF/lib is
+ * inspected once, looking for TLDs, web fragments, static resources,
+ * ServletContainerInitializers, classes annotated with WebServlet, WebFilter
+ * or WebListener and classes matching the HandlesTypes declaration of an
+ * initializer, by annotation or by type. The result is written to an index
+ * file and reused on later starts while the JARs are unchanged: only the
+ * indexed JARs are scanned by Tomcat, all the others are skipped.
+ * <p>
+ * When the HandlesTypes of an initializer can not be read, pluggability
+ * scanning is left unrestricted. Application classes outside JARs are always
+ * scanned.
+ *
+ * @author Marcio Carvalho
+ */
+public class JarScanIndex {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(JarScanIndex.class);
+
+    private static final String FINGERPRINT = "fingerprint";
+
+    private static final String JARS = "jars";
+
+    private static final String UNRESTRICTED = "pluggabilityUnrestricted";
+
+    /**
+     * Index format version, part of the fingerprint so older indexes are
+     * rebuilt
+     */
+    private static final String FORMAT = "2";
+
+    /**
+     * ServletContainerInitializer service files
+     */
+    private static final String[] INITIALIZER_SERVICES = {
+            "META-INF/services/javax.servlet.ServletContainerInitializer",
+            "META-INF/services/jakarta.servlet.ServletContainerInitializer"};
+
+    private static final Set<String> HANDLES_TYPES = new HashSet<>(Arrays.asList(
+            "javax.servlet.annotation.HandlesTypes", "jakarta.servlet.annotation.HandlesTypes"));
+
+    /**
+     * Index file
+     */
+    private final File indexFile;
+
+    /**
+     * Constructor taking the index file location
+     *
+     * @param indexFile
+     *         index file, created on the first start
+     */
+    public JarScanIndex(File indexFile) {
+        if (indexFile == null) {
+            throw new IllegalStateException("Index file is null");
+        }
+
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Constructor keeping the index in the temporary directory, one per
+     * working directory
+     */
+    public JarScanIndex() {
+        this(new File(System.getProperty("java.io.tmpdir"),
+                "tomcat-jar-scan-" + Integer.toHexString(new File("").getAbsolutePath().hashCode()) + ".properties"));
+    }
+
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Loads the index, rebuilding it when missing or stale, and restricts the
+     * context JAR scanning to the indexed JARs
+     *
+     * @param context
+     *         application context
+     * @param documentBase
+     *         application document base
+     */
+    public void configure(Context context, File documentBase) {
+
+        List<File> jars = findJars(documentBase);
+        String fingerprint = fingerprint(jars, documentBase);
+
+        Properties index = load();
+
+        if (index == null || !fingerprint.equals(index.getProperty(FINGERPRINT))) {
+            long start = System.currentTimeMillis();
+
+            index = build(jars, documentBase);
+            index.setProperty(FINGERPRINT, fingerprint);
+            store(index);
+
+            log.info("JAR scan index built in " + (System.currentTimeMillis() - start) + "ms: " + indexFile);
+        }
+
+        String scan = index.getProperty(JARS, "");
+
+        log.info("JAR scanning restricted to: " + (scan.isEmpty() ? "none" : scan));
+
+        StandardJarScanFilter filter = new StandardJarScanFilter();
+        filter.setDefaultTldScan(false);
+        filter.setTldScan(scan);
+
+        if (Boolean.parseBoolean(index.getProperty(UNRESTRICTED))) {
+            log.info("Pluggability scanning not restricted");
+        } else {
+            filter.setDefaultPluggabilityScan(false);
+            filter.setPluggabilityScan(scan);
+        }
+
+        StandardJarScanner scanner = new StandardJarScanner();
+        scanner.setJarScanFilter(filter);
+
+        context.setJarScanner(scanner);
+    }
+
+    /**
+     * Classpath JARs, with the JARs referenced by their manifest Class-Path,
+     * plus the WEB-INF/lib JARs of an exploded document base
+     *
+     * @param documentBase
+     * @return
+     */
+    private List<File> findJars(File documentBase) {
+
+        Set<File> jars = new LinkedHashSet<>();
+
+        for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+            addJar(new File(entry).getAbsoluteFile(), jars);
+        }
+
+        File[] libs = new File(documentBase, "WEB-INF/lib").listFiles();
+
+        if (libs != null) {
+            for (File lib : libs) {
+                addJar(lib.getAbsoluteFile(), jars);
+            }
+        }
+
+        return new ArrayList<>(jars);
+    }
+
+    /**
+     * Adds a JAR and, recursively, the JARs of its manifest Class-Path, as
+     * Tomcat scans them
+     *
+     * @param file
+     * @param jars
+     */
+    private void addJar(File file, Set<File> jars) {
+
+        if (!file.isFile() || !file.getName().endsWith(".jar") || !jars.add(file)) {
+            return;
+        }
+
+        String classPath;
+
+        try (JarFile jar = new JarFile(file)) {
+            Manifest manifest = jar.getManifest();
+            classPath = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+        } catch (IOException e) {
+            log.warn("Unable to read the manifest of " + file, e);
+            return;
+        }
+
+        if (classPath == null) {
+            return;
+        }
+
+        for (String entry : classPath.trim().split("\\s+")) {
+            try {
+                URL url = new URL(file.toURI().toURL(), entry);
+
+                if ("file".equals(url.getProtocol())) {
+                    addJar(new File(url.toURI()).getAbsoluteFile(), jars);
+                }
+            } catch (MalformedURLException | URISyntaxException | IllegalArgumentException e) {
+                log.debug("Invalid manifest Class-Path entry " + entry + " in " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Hash of the JARs names, sizes and modification times
+     *
+     * @param jars
+     * @param documentBase
+     * @return
+     */
+    private String fingerprint(List<File> jars, File documentBase) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((FORMAT + "\n").getBytes(StandardCharsets.UTF_8));
+
+            for (File jar : jars) {
+                digest.update((jar.getAbsolutePath() + ":" + jar.length() + ":" + jar.lastModified() + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+
+            if (documentBase.isFile()) {
+                digest.update((documentBase.getAbsolutePath() + ":" + documentBase.length() + ":" +
+                        documentBase.lastModified()).getBytes(StandardCharsets.UTF_8));
+            }
+
+            StringBuilder hex = new StringBuilder();
+
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Inspects every JAR, including the WEB-INF/lib JARs of a packaged
+     * document base
+     *
+     * @param jars
+     * @param documentBase
+     * @return
+     */
+    private Properties build(List<File> jars, File documentBase) {
+
+        Scan scan = new Scan();
+
+        for (File jar : jars) {
+            try (ZipFile zip = new ZipFile(jar)) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        scan.inspect(jar.getName(), entry, in);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Unable to index " + jar + ", it will be scanned", e);
+                scan.jars.add(jar.getName());
+            }
+        }
+
+        if (documentBase.isFile()) {
+            try (ZipFile war = new ZipFile(documentBase)) {
+                Enumeration<? extends ZipEntry> entries = war.entries();
+
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+
+                    if (entry.getName().startsWith("WEB-INF/lib/") && entry.getName().endsWith(".jar")) {
+                        String name = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+
+                        try (ZipInputStream jar = new ZipInputStream(war.getInputStream(entry))) {
+                            ZipEntry jarEntry;
+
+                            while ((jarEntry = jar.getNextEntry()) != null) {
+                                scan.inspect(name, jarEntry, jar);
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to index " + documentBase, e);
+            }
+        }
+
+        boolean resolved = scan.addHandledJars();
+
+        Properties index = new Properties();
+        index.setProperty(UNRESTRICTED, String.valueOf(!resolved));
+        index.setProperty(JARS, String.join(",", scan.jars));
+
+        return index;
+    }
+
+    private Properties load() {
+
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        try (InputStream in = new FileInputStream(indexFile)) {
+            Properties index = new Properties();
+            index.load(in);
+            return index;
+        } catch (IOException e) {
+            log.warn("Unable to read the JAR scan index " + indexFile, e);
+            return null;
+        }
+    }
+
+    private void store(Properties index) {
+
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            log.warn("Unable to create the JAR scan index dir " + parent);
+            return;
+        }
+
+        try (OutputStream out = new FileOutputStream(indexFile)) {
+            index.store(out, "Tomcat launcher JAR scan index");
+        } catch (IOException e) {
+            log.warn("Unable to write the JAR scan index " + indexFile, e);
+        }
+    }
+
+    /**
+     * Scan results
+     */
+    private static class Scan {
+
+        private final Set<String> jars = new TreeSet<>();
+
+        private final Set<String> initializers = new TreeSet<>();
+
+        /**
+         * Classes of every JAR by name
+         */
+        private final Map<String, IndexedClass> classes = new HashMap<>();
+
+        /**
+         * HandlesTypes declarations by annotated class name
+         */
+        private final Map<String, List<String>> handlesTypes = new HashMap<>();
+
+        /**
+         * Checks whether a JAR entry is relevant to the Tomcat scanning
+         *
+         * @param jar
+         *         JAR file name
+         * @param entry
+         * @param in
+         *         entry contents
+         * @throws IOException
+         */
+        private void inspect(String jar, ZipEntry entry, InputStream in) throws IOException {
+
+            String name = entry.getName();
+
+            if (name.equals("META-INF/web-fragment.xml") || name.startsWith("META-INF/resources/") ||
+                    (name.startsWith("META-INF/") && name.endsWith(".tld"))) {
+                jars.add(jar);
+            } else if (isInitializerService(name)) {
+                jars.add(jar);
+                readInitializers(in);
+            } else if (name.endsWith(".class") && !name.endsWith("module-info.class")) {
+                inspectClass(jar, in);
+            }
+        }
+
+        private void inspectClass(String jar, InputStream in) throws IOException {
+
+            JavaClass javaClass;
+
+            try {
+                javaClass = new ClassParser(in).parse();
+            } catch (ClassFormatException e) {
+                log.debug("Unable to parse a class of " + jar, e);
+                return;
+            }
+
+            String className = javaClass.getClassName();
+            List<String> annotations = new ArrayList<>();
+            AnnotationEntry[] entries = javaClass.getAnnotationEntries();
+
+            for (AnnotationEntry entry : entries == null ? new AnnotationEntry[0] : entries) {
+                String annotation = typeName(entry.getAnnotationType());
+                annotations.add(annotation);
+
+                if (annotation.endsWith("servlet.annotation.WebServlet") ||
+                        annotation.endsWith("servlet.annotation.WebFilter") ||
+                        annotation.endsWith("servlet.annotation.WebListener")) {
+                    jars.add(jar);
+                } else if (HANDLES_TYPES.contains(annotation)) {
+                    handlesTypes.put(className, handledTypes(entry));
+                }
+            }
+
+            classes.putIfAbsent(className, new IndexedClass(jar, javaClass, annotations));
+        }
+
+        /**
+         * @param entry
+         *         HandlesTypes annotation
+         * @return names of the handled types
+         */
+        private List<String> handledTypes(AnnotationEntry entry) {
+
+            List<String> types = new ArrayList<>();
+
+            for (ElementValuePair pair : entry.getElementValuePairs()) {
+                if ("value".equals(pair.getNameString()) && pair.getValue() instanceof ArrayElementValue) {
+                    for (ElementValue value : ((ArrayElementValue) pair.getValue()).getElementValuesArray()) {
+                        types.add(typeName(value.stringifyValue()));
+                    }
+                }
+            }
+
+            return types;
+        }
+
+        /**
+         * Adds the JARs with classes annotated with, or extending, the types
+         * handled by the initializers
+         *
+         * @return false when the handled types of an initializer are unknown
+         */
+        private boolean addHandledJars() {
+
+            Set<String> targets = new HashSet<>();
+
+            for (String initializer : initializers) {
+                if (!classes.containsKey(initializer)) {
+                    log.info("Initializer " + initializer + " not found in the indexed JARs");
+                    return false;
+                }
+
+                targets.addAll(handlesTypes.getOrDefault(initializer, Collections.emptyList()));
+            }
+
+            if (targets.isEmpty()) {
+                return true;
+            }
+
+            Map<String, Boolean> subtypes = new HashMap<>();
+
+            for (IndexedClass indexed : classes.values()) {
+                if (jars.contains(indexed.jar)) {
+                    continue;
+                }
+
+                if (!Collections.disjoint(indexed.annotations, targets) ||
+                        extendsAny(indexed.supertypes, targets, subtypes)) {
+                    jars.add(indexed.jar);
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * @param supertypes
+         *         direct superclass and interfaces of a class
+         * @param targets
+         *         handled types
+         * @param subtypes
+         *         already resolved classes
+         * @return true when one of the supertypes is, or extends, a handled
+         * type
+         */
+        private boolean extendsAny(List<String> supertypes, Set<String> targets, Map<String, Boolean> subtypes) {
+
+            for (String supertype : supertypes) {
+                if (targets.contains(supertype)) {
+                    return true;
+                }
+
+                Boolean known = subtypes.get(supertype);
+
+                if (known == null) {
+                    IndexedClass indexed = classes.get(supertype);
+
+                    // guards against cyclic hierarchies
+                    subtypes.put(supertype, Boolean.FALSE);
+                    known = indexed != null && extendsAny(indexed.supertypes, targets, subtypes);
+                    subtypes.put(supertype, known);
+                }
+
+                if (known) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * @param descriptor
+         *         type descriptor, such as Ljavax/faces/convert/FacesConverter;
+         * @return class name
+         */
+        private static String typeName(String descriptor) {
+            String name = descriptor.startsWith("L") && descriptor.endsWith(";") ?
+                    descriptor.substring(1, descriptor.length() - 1) : descriptor;
+            return name.replace('/', '.');
+        }
+
+        private boolean isInitializerService(String name) {
+            for (String service : INITIALIZER_SERVICES) {
+                if (service.equals(name)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private void readInitializers(InputStream in) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                line = (comment == -1 ? line : line.substring(0, comment)).trim();
+
+                if (!line.isEmpty()) {
+                    initializers.add(line);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Class of an indexed JAR
+     */
+    private static class IndexedClass {
+
+        private final String jar;
+
+        /**
+         * Superclass and interface names
+         */
+        private final List<String> supertypes = new ArrayList<>();
+
+        /**
+         * Class level annotation names
+         */
+        private final List<String> annotations;
+
+        private IndexedClass(String jar, JavaClass javaClass, List<String> annotations) {
+            this.jar = jar;
+            this.annotations = annotations;
+
+            if (javaClass.getSuperclassName() != null) {
+                supertypes.add(javaClass.getSuperclassName());
+            }
+
+            supertypes.addAll(Arrays.asList(javaClass.getInterfaceNames()));
+        }
+    }
+}
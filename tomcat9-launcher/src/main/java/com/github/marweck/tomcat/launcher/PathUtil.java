@@ -9,9 +9,13 @@ import java.net.JarURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.CodeSource;
+import java.util.Comparator;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.stream.Stream;
 
 /**
  * Utilities related to resources paths
@@ -56,6 +60,46 @@ public class PathUtil {
         }
     }
 
+    /**
+     * Deletes a directory tree, if existent
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public static void deleteTree(File directory) throws IOException {
+
+        Path root = directory.toPath();
+
+        if (!Files.exists(root)) {
+            return;
+        }
+
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Normalizes a web context name into a context path
+     *
+     * @param name
+     *         context name, or null for the root context
+     * @return the context path, starting with a slash, or empty for the root
+     * context
+     */
+    public static String getContextPath(String name) {
+
+        if (name == null) {
+            return "";
+        } else if (!name.startsWith("/")) {
+            return "/" + name;
+        }
+
+        return name;
+    }
+
     /**
      * Find the path of the most likely document root locations
      *
@@ -140,7 +184,7 @@ public class PathUtil {
      *
      * @return
      */
-    private static File getCodeSourceArchive() {
+    static File getCodeSourceArchive() {
 
         try {
             CodeSource codeSource = PathUtil.class.getProtectionDomain().getCodeSource();
@@ -0,0 +1,176 @@
+package com.github.marweck.tomcat.launcher;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JFR event recorded for each launcher startup phase.
+ * <p>
+ * The event type is defined at runtime through the JFR {@code EventFactory},
+ * so the launcher builds on any Java 8 JDK and still runs where JFR is not
+ * available. Only the flight recorder entry point is resolved up front: the
+ * event type is created once a recording is running, so regular boots do not
+ * load JFR.
+ *
+ * @author Marcio Carvalho
+ */
+final class StartupPhaseEvent {
+
+    private static final String NAME = "com.github.marweck.tomcat.StartupPhase";
+
+    /**
+     * FlightRecorder.isInitialized, null when the running JVM does not ship
+     * JFR
+     */
+    private static final Method IS_INITIALIZED = isInitializedMethod();
+
+    private StartupPhaseEvent() {
+    }
+
+    private static Method isInitializedMethod() {
+        try {
+            return Class.forName("jdk.jfr.FlightRecorder").getMethod("isInitialized");
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether a flight recording is running, so the events are not
+     * created when nobody is recording
+     *
+     * @return false as well when the running JVM does not ship JFR
+     */
+    static boolean isRecording() {
+
+        if (IS_INITIALIZED == null) {
+            return false;
+        }
+
+        try {
+            if (!(Boolean) IS_INITIALIZED.invoke(null)) {
+                return false;
+            }
+
+            Class<?> flightRecorder = IS_INITIALIZED.getDeclaringClass();
+            Object recorder = flightRecorder.getMethod("getFlightRecorder").invoke(null);
+
+            for (Object recording : (List<?>) flightRecorder.getMethod("getRecordings").invoke(recorder)) {
+                Object state = recording.getClass().getMethod("getState").invoke(recording);
+
+                if ("RUNNING".equals(String.valueOf(state))) {
+                    return Factory.FACTORY != null;
+                }
+            }
+
+            return false;
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates and begins the event
+     *
+     * @param phase
+     *         phase name
+     * @return the event, or null when it could not be created
+     */
+    static Object begin(String phase) {
+        try {
+            Object event = Factory.NEW_EVENT.invoke(Factory.FACTORY);
+            Factory.SET.invoke(event, 0, phase);
+            Factory.BEGIN.invoke(event);
+            return event;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Ends and commits the event
+     *
+     * @param event
+     *         event returned by {@link #begin(String)}
+     */
+    static void commit(Object event) {
+        try {
+            Factory.COMMIT.invoke(event);
+        } catch (ReflectiveOperationException e) {
+            // event dropped
+        }
+    }
+
+    /**
+     * Event type, created on first use
+     */
+    private static final class Factory {
+
+        private static final Method NEW_EVENT;
+
+        private static final Method SET;
+
+        private static final Method BEGIN;
+
+        private static final Method COMMIT;
+
+        /**
+         * Event factory of the startup phase event type, null when it could
+         * not be created
+         */
+        private static final Object FACTORY;
+
+        static {
+            Method newEvent = null;
+            Method set = null;
+            Method begin = null;
+            Method commit = null;
+            Object factory = null;
+
+            try {
+                Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+                Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+                Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+                Class<?> event = Class.forName("jdk.jfr.Event");
+
+                Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+                Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+                List<Object> eventAnnotations = Arrays.asList(
+                        annotation.newInstance(jfrAnnotation("Name"), NAME),
+                        annotation.newInstance(jfrAnnotation("Label"), "Startup Phase"),
+                        annotation.newInstance(jfrAnnotation("Category"), new String[]{"Tomcat Launcher"}),
+                        annotation.newInstance(jfrAnnotation("Description"), "Duration of a Tomcat launcher startup phase"));
+
+                List<Object> fields = Collections.singletonList(field.newInstance(String.class, "phase",
+                        Collections.singletonList(annotation.newInstance(jfrAnnotation("Label"), "Phase"))));
+
+                factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+                newEvent = eventFactory.getMethod("newEvent");
+                set = event.getMethod("set", int.class, Object.class);
+                begin = event.getMethod("begin");
+                commit = event.getMethod("commit");
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                factory = null;
+            }
+
+            NEW_EVENT = newEvent;
+            SET = set;
+            BEGIN = begin;
+            COMMIT = commit;
+            FACTORY = factory;
+        }
+
+        private Factory() {
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Class<? extends Annotation> jfrAnnotation(String name) throws ClassNotFoundException {
+            return (Class<? extends Annotation>) Class.forName("jdk.jfr." + name);
+        }
+    }
+}
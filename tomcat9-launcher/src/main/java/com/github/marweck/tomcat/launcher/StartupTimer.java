@@ -0,0 +1,176 @@
+package com.github.marweck.tomcat.launcher;
+
+import org.apache.catalina.LifecycleListener;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Launcher startup phases timer.
+ * <p>
+ * Each phase is logged, recorded as a JFR event while a flight recording is
+ * running and written to a JSON startup report.
+ *
+ * @author Marcio Carvalho
+ */
+public class StartupTimer {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(StartupTimer.class);
+
+    /**
+     * Timer start
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * Phases in the order they began
+     */
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+    /**
+     * Begins a phase
+     *
+     * @param name
+     *         phase name
+     */
+    public synchronized void begin(String name) {
+        phases.put(name, new Phase(name));
+    }
+
+    /**
+     * Ends a phase, if it has begun
+     *
+     * @param name
+     *         phase name
+     */
+    public synchronized void end(String name) {
+        Phase phase = phases.get(name);
+
+        if (phase != null && phase.end == 0) {
+            phase.end();
+        }
+    }
+
+    /**
+     * Creates a lifecycle listener beginning a phase on an event
+     *
+     * @param eventType
+     *         lifecycle event type
+     * @param name
+     *         phase name
+     * @return
+     */
+    public LifecycleListener beginOn(final String eventType, final String name) {
+        return event -> {
+            if (eventType.equals(event.getType())) {
+                begin(name);
+            }
+        };
+    }
+
+    /**
+     * Creates a lifecycle listener ending a phase on an event
+     *
+     * @param eventType
+     *         lifecycle event type
+     * @param name
+     *         phase name
+     * @return
+     */
+    public LifecycleListener endOn(final String eventType, final String name) {
+        return event -> {
+            if (eventType.equals(event.getType())) {
+                end(name);
+            }
+        };
+    }
+
+    /**
+     * Logs the phases breakdown and writes the JSON startup report
+     *
+     * @param report
+     *         report file
+     */
+    public synchronized void report(File report) {
+
+        List<Phase> ended = new ArrayList<>();
+
+        for (Phase phase : phases.values()) {
+            if (phase.end != 0) {
+                ended.add(phase);
+                log.info(String.format(Locale.ENGLISH, "Startup phase %-22s %10.3fms", phase.name, phase.millis()));
+            }
+        }
+
+        StringBuilder json = new StringBuilder("{\n  \"totalMillis\": ")
+                .append(format((System.nanoTime() - start) / 1e6)).append(",\n  \"phases\": [");
+
+        for (int i = 0; i < ended.size(); i++) {
+            Phase phase = ended.get(i);
+
+            json.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"name\": \"").append(phase.name.replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append("\", \"offsetMillis\": ").append(format((phase.begin - start) / 1e6))
+                    .append(", \"durationMillis\": ").append(format(phase.millis())).append('}');
+        }
+
+        json.append("\n  ]\n}\n");
+
+        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(report.toPath()), StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+            log.info("Startup report written to " + report.getAbsolutePath());
+        } catch (IOException e) {
+            log.warn("Unable to write the startup report " + report, e);
+        }
+    }
+
+    private static String format(double millis) {
+        return String.format(Locale.ENGLISH, "%.3f", millis);
+    }
+
+    /**
+     * Startup phase
+     */
+    private static class Phase {
+
+        private final String name;
+
+        private final Object event;
+
+        private final long begin;
+
+        private long end;
+
+        private Phase(String name) {
+            this.name = name;
+            this.event = StartupPhaseEvent.isRecording() ? StartupPhaseEvent.begin(name) : null;
+            this.begin = System.nanoTime();
+        }
+
+        private void end() {
+            end = System.nanoTime();
+
+            if (event != null) {
+                StartupPhaseEvent.commit(event);
+            }
+        }
+
+        private double millis() {
+            return (end - begin) / 1e6;
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package com.github.marweck.tomcat.launcher;
 
+import com.github.marweck.tomcat.connector.CompressionPolicy;
+import com.github.marweck.tomcat.connector.ConnectorConfig;
+import com.github.marweck.tomcat.resources.MappedWarRoot;
+import com.github.marweck.tomcat.resources.PrecompressedResources;
+import com.github.marweck.tomcat.resources.ResourceCache;
+import com.github.marweck.tomcat.resources.StaticDelivery;
 import com.github.marweck.tomcat.session.DefaultSessionStore;
+import com.github.marweck.tomcat.session.SessionMetrics;
 import com.github.marweck.tomcat.session.SessionStore;
 import org.apache.catalina.Host;
+import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.WebResourceRoot;
@@ -15,13 +23,16 @@ import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.Tomcat.DefaultWebXmlListener;
 import org.apache.catalina.startup.Tomcat.FixContextListener;
 import org.apache.catalina.webresources.DirResourceSet;
-import org.apache.catalina.webresources.StandardRoot;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
 import javax.servlet.ServletException;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Embedded Tomcat 9 Launcher
@@ -43,11 +54,6 @@ public final class Tomcat9Launcher {
      */
     private static final Log log = LogFactory.getLog(Tomcat9Launcher.class);
 
-    /**
-     * NIO protocol handler
-     */
-    private static final String DEFAULT_PROTOCOL = "org.apache.coyote.http11.Http11NioProtocol";
-
     /**
      * Application context name
      */
@@ -68,6 +74,66 @@ public final class Tomcat9Launcher {
      */
     private final SessionStore sessionStore;
 
+    /**
+     * Web applications mounted besides the main one
+     */
+    private final List<Webapp> webapps = new ArrayList<>();
+
+    /**
+     * Connector protocol configuration. NIO by default
+     */
+    private ConnectorConfig connectorConfig = new ConnectorConfig();
+
+    /**
+     * Connectors listening besides the main one
+     */
+    private final List<ConnectorConfig> connectorConfigs = new ArrayList<>();
+
+    /**
+     * HTTP compression policy, applied when compression is enabled
+     */
+    private CompressionPolicy compressionPolicy = new CompressionPolicy();
+
+    /**
+     * Fast-start JAR scan index. Disabled when null
+     */
+    private JarScanIndex jarScanIndex;
+
+    /**
+     * Persistent base directory. A new temporary one on every start when null
+     */
+    private BaseDir baseDir;
+
+    /**
+     * Packed WAR extraction. WARs are served packed when null
+     */
+    private WarExploder warExploder;
+
+    /**
+     * Startup report file. Written to the Tomcat base dir when null
+     */
+    private File startupReport;
+
+    /**
+     * Pre-compressed static resources. Disabled when null
+     */
+    private PrecompressedResources precompressedResources;
+
+    /**
+     * Static resource cache configuration. Tomcat default cache when null
+     */
+    private ResourceCache resourceCache;
+
+    /**
+     * Sendfile static delivery. Connector defaults when null
+     */
+    private StaticDelivery staticDelivery;
+
+    /**
+     * Determines whether a packed WAR document base is memory mapped
+     */
+    private boolean warMapped;
+
     /**
      * Full constructor
      *
@@ -88,13 +154,7 @@ public final class Tomcat9Launcher {
             this.port = port;
         }
 
-        if (appContext == null) {
-            this.appContext = "";
-        } else if (!appContext.startsWith("/")) {
-            this.appContext = "/" + appContext;
-        } else {
-            this.appContext = appContext;
-        }
+        this.appContext = PathUtil.getContextPath(appContext);
 
         this.compressingEnabled = compressingEnabled;
         this.sessionStore = sessionStore;
@@ -146,6 +206,185 @@ public final class Tomcat9Launcher {
         this(8080, sessionStore);
     }
 
+    /**
+     * Mounts another web application, with its own context path, document
+     * base and session store, on the same server
+     *
+     * @param webapp
+     *         web application
+     * @return this launcher
+     */
+    public Tomcat9Launcher addWebapp(Webapp webapp) {
+
+        boolean duplicated = webapp.getPath().equals(appContext);
+
+        for (Webapp other : webapps) {
+            duplicated |= webapp.getPath().equals(other.getPath());
+        }
+
+        if (duplicated) {
+            throw new IllegalStateException("Context path already in use: " + webapp.getPath());
+        }
+
+        webapps.add(webapp);
+        return this;
+    }
+
+    /**
+     * Sets the connector protocol configuration
+     *
+     * @param connectorConfig
+     *         protocol handler and its specific settings
+     * @return this launcher
+     */
+    public Tomcat9Launcher setConnectorConfig(ConnectorConfig connectorConfig) {
+        if (connectorConfig == null) {
+            throw new IllegalStateException("Connector config is null");
+        }
+
+        this.connectorConfig = connectorConfig;
+        return this;
+    }
+
+    /**
+     * Adds another connector, with its own port, protocol, thread pool and
+     * limits, serving the same web applications
+     *
+     * @param connectorConfig
+     *         connector configuration, with its port set
+     * @return this launcher
+     */
+    public Tomcat9Launcher addConnector(ConnectorConfig connectorConfig) {
+
+        if (connectorConfig.getPort() == null) {
+            throw new IllegalStateException("Connector port is null");
+        }
+
+        if (getPorts().contains(connectorConfig.getPort())) {
+            throw new IllegalStateException("Port " + connectorConfig.getPort() + " already used by another connector");
+        }
+
+        connectorConfigs.add(connectorConfig);
+        return this;
+    }
+
+    /**
+     * Sets the HTTP compression policy, applied when compression is enabled
+     *
+     * @param compressionPolicy
+     *         MIME types, thresholds and exclusions
+     * @return this launcher
+     */
+    public Tomcat9Launcher setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        if (compressionPolicy == null) {
+            throw new IllegalStateException("Compression policy is null");
+        }
+
+        this.compressionPolicy = compressionPolicy;
+        return this;
+    }
+
+    /**
+     * Enables the fast-start mode: JAR scanning is restricted to the JARs
+     * found relevant on the first start
+     *
+     * @param jarScanIndex
+     *         JAR scan index, or null to scan every JAR
+     * @return this launcher
+     */
+    public Tomcat9Launcher setJarScanIndex(JarScanIndex jarScanIndex) {
+        this.jarScanIndex = jarScanIndex;
+        return this;
+    }
+
+    /**
+     * Keeps the Tomcat base directory, and the compiled JSPs of its work
+     * directory, across restarts
+     *
+     * @param baseDir
+     *         base directory configuration, or null for a new temporary
+     *         directory on every start
+     * @return this launcher
+     */
+    public Tomcat9Launcher setBaseDir(BaseDir baseDir) {
+        this.baseDir = baseDir;
+        return this;
+    }
+
+    /**
+     * Explodes the packed WAR document bases, once per WAR content
+     *
+     * @param warExploder
+     *         WAR extraction configuration, or null to serve WARs packed
+     * @return this launcher
+     */
+    public Tomcat9Launcher setWarExploder(WarExploder warExploder) {
+        this.warExploder = warExploder;
+        return this;
+    }
+
+    /**
+     * Enables the pre-compressed static resources
+     *
+     * @param precompressedResources
+     *         pre-compressed resources configuration, or null to disable it
+     * @return this launcher
+     */
+    public Tomcat9Launcher setPrecompressedResources(PrecompressedResources precompressedResources) {
+        this.precompressedResources = precompressedResources;
+        return this;
+    }
+
+    /**
+     * Configures the static resource cache of the web applications
+     *
+     * @param resourceCache
+     *         resource cache configuration, or null for the Tomcat default
+     *         cache
+     * @return this launcher
+     */
+    public Tomcat9Launcher setResourceCache(ResourceCache resourceCache) {
+        this.resourceCache = resourceCache;
+        return this;
+    }
+
+    /**
+     * Configures the delivery of the large static files through sendfile
+     *
+     * @param staticDelivery
+     *         static delivery configuration, or null for the connector
+     *         defaults
+     * @return this launcher
+     */
+    public Tomcat9Launcher setStaticDelivery(StaticDelivery staticDelivery) {
+        this.staticDelivery = staticDelivery;
+        return this;
+    }
+
+    /**
+     * Serves a packed WAR document base from a memory mapping of the WAR,
+     * with its entries indexed once, instead of reading it as a zip file
+     *
+     * @param warMapped
+     * @return this launcher
+     */
+    public Tomcat9Launcher setWarMapped(boolean warMapped) {
+        this.warMapped = warMapped;
+        return this;
+    }
+
+    /**
+     * Sets the JSON startup report location
+     *
+     * @param startupReport
+     *         report file, or null to write it to the Tomcat base dir
+     * @return this launcher
+     */
+    public Tomcat9Launcher setStartupReport(File startupReport) {
+        this.startupReport = startupReport;
+        return this;
+    }
+
     /**
      * Configures and starts the embedded Tomcat. When returned, the tomcat will
      * have stopped.
@@ -156,76 +395,148 @@ public final class Tomcat9Launcher {
 
         Banner.printBanner(System.out);
 
-        if (!PortUtil.available(port)) {
-            log.error(Banner.redText("\n\n >>>>>>>>>> BOOOOOOOOM!!! Port already in use... <<<<<<<<<<\n\n"));
-            return;
+        checkPorts();
+
+        for (int connectorPort : getPorts()) {
+            if (!PortUtil.available(connectorPort)) {
+                log.error(Banner.redText("\n\n >>>>>>>>>> BOOOOOOOOM!!! Port " + connectorPort +
+                        " already in use... <<<<<<<<<<\n\n"));
+                return;
+            }
         }
 
         long start = System.currentTimeMillis();
+        StartupTimer timer = new StartupTimer();
 
-        Tomcat tomcat = startServer();
+        Tomcat tomcat = startServer(timer);
 
-        log.info(Banner.blueText("Server localhost:" + port + appContext + " started in " +
+        log.info(Banner.blueText("Server localhost:" + getMainPort() + appContext + " started in " +
                 (System.currentTimeMillis() - start) + "ms"));
 
+        for (Webapp webapp : webapps) {
+            log.info(Banner.blueText("Webapp localhost:" + getMainPort() + webapp.getPath() + " from " +
+                    webapp.getDocumentBase()));
+        }
+
+        for (ConnectorConfig config : connectorConfigs) {
+            log.info(Banner.blueText("Connector " + config.getProtocol() + " listening on port " + config.getPort()));
+        }
+
+        timer.report(startupReport != null ? startupReport :
+                new File(tomcat.getServer().getCatalinaBase(), "startup-report.json"));
+
         tomcat.getServer().await();
     }
 
     /**
-     * Creates and starts the Tomcat server instance
+     * Creates and starts the Tomcat server instance, timing each startup phase
      *
+     * @param timer
+     *         startup phases timer
      * @return
      * @throws IOException
      * @throws ServletException
      * @throws LifecycleException
      */
-    private Tomcat startServer() throws LifecycleException {
+    private Tomcat startServer(StartupTimer timer) throws LifecycleException {
 
         initEnvironmentVariables();
 
         Tomcat tomcat = new Tomcat();
 
-        tomcat.setBaseDir(PathUtil.createTempDir("tomcat-base-dir", Integer.toString(port)).toString());
+        timer.begin("temp-dir");
+        tomcat.setBaseDir((baseDir != null ? baseDir.prepare(port) :
+                PathUtil.createTempDir("tomcat-base-dir", Integer.toString(port))).toString());
+        timer.end("temp-dir");
+
         tomcat.setPort(port);
         tomcat.setSilent(true);
         tomcat.enableNaming();
 
-        prepareContext(tomcat);
-        prepareConnector(tomcat);
+        timer.begin("context-preparation");
+        prepareContext(tomcat, new Webapp(appContext, null, sessionStore), true, timer);
+
+        for (Webapp webapp : webapps) {
+            prepareContext(tomcat, webapp, false, timer);
+        }
+
+        timer.end("context-preparation");
+
+        timer.begin("connector-preparation");
+        prepareConnector(tomcat, connectorConfig, getMainPort(), true, timer);
 
+        for (ConnectorConfig config : connectorConfigs) {
+            prepareConnector(tomcat, config, config.getPort(), false, timer);
+        }
+
+        timer.end("connector-preparation");
+
+        timer.begin("tomcat-start");
         tomcat.start();
+        timer.end("tomcat-start");
 
         return tomcat;
     }
 
     /**
-     * Creates and prepares the application context.
+     * Creates and prepares a web application context. The IDE alternative
+     * resources and the JAR scan index only apply to the main application.
      *
      * @param tomcat
+     * @param webapp
+     *         web application
+     * @param main
+     *         determines whether this is the main application
+     * @param timer
+     *         startup phases timer
      * @return
      * @throws ServletException
      */
-    private StandardContext prepareContext(Tomcat tomcat) {
+    private StandardContext prepareContext(Tomcat tomcat, Webapp webapp, boolean main, StartupTimer timer) {
 
         Host host = tomcat.getHost();
         StandardContext context = new StandardContext();
 
-        context.setName(appContext);
-        context.setPath(appContext);
+        // phases of the other applications are suffixed by their path
+        String phase = main ? "" : " " + webapp.getBaseName();
 
-        sessionStore.configureSessionStore(context);
+        context.setName(webapp.getPath());
+        context.setPath(webapp.getPath());
+
+        timer.begin("session-store" + phase);
+        webapp.getSessionStore().configureSessionStore(context);
+        SessionMetrics.of(context);
+        timer.end("session-store" + phase);
+
+        timer.begin("document-base" + phase);
+        File documentBase = webapp.getDocumentBase();
+        timer.end("document-base" + phase);
+
+        if (warExploder != null && documentBase.isFile()) {
+            timer.begin("war-explode" + phase);
+            documentBase = warExploder.explode(documentBase, baseDir != null ?
+                    new File(tomcat.getServer().getCatalinaBase(), "exploded") : null);
+            timer.end("war-explode" + phase);
+        }
 
-        File documentBase = PathUtil.getDocumentBase();
         context.setDocBase(documentBase.getAbsolutePath());
         context.setParentClassLoader(getClass().getClassLoader());
         context.setConfigFile(PathUtil.getWebappConfigFile(documentBase));
 
+        if (main && jarScanIndex != null) {
+            timer.begin("jar-scan-index");
+            jarScanIndex.configure(context, documentBase);
+            timer.end("jar-scan-index");
+        }
+
         context.addLifecycleListener(new DefaultWebXmlListener());
+        // JAR scanning happens while the context config processes this event
+        context.addLifecycleListener(timer.beginOn(Lifecycle.CONFIGURE_START_EVENT, "jar-scanning" + phase));
         context.addLifecycleListener(createLifecycleListener(host));
+        context.addLifecycleListener(timer.endOn(Lifecycle.CONFIGURE_START_EVENT, "jar-scanning" + phase));
         context.addLifecycleListener(new FixContextListener());
 
-        // target/classes if existent
-        addAlternativeResources(context);
+        prepareResources(tomcat, context, webapp, documentBase, main);
 
         WebappLoader loader = new WebappLoader(context.getParentClassLoader());
         loader.setDelegate(true);
@@ -237,55 +548,148 @@ public final class Tomcat9Launcher {
     }
 
     /**
-     * Creates and configures the server connector.
+     * Creates and configures a server connector, using the protocol handler
+     * chosen on the connector configuration.
      * <p>
-     * This connector uses compression by default for every text file (html, js,
-     * xml, css, json) with size greater than 4KB.
+     * This connector uses compression by default, as defined by the compression
+     * policy: text types (html, js, xml, css, json, svg, ndjson, wasm) with size
+     * greater than 4KB.
      *
      * @param tomcat
+     * @param config
+     *         connector configuration
+     * @param connectorPort
+     *         connector port
+     * @param main
+     *         determines whether this is the main connector
+     * @param timer
+     *         startup phases timer
      * @return
      */
-    private Connector prepareConnector(Tomcat tomcat) {
+    private Connector prepareConnector(Tomcat tomcat, ConnectorConfig config, int connectorPort, boolean main,
+                                       StartupTimer timer) {
+
+        Connector connector = config.createConnector(tomcat.getService(),
+                compressingEnabled ? compressionPolicy : null);
 
-        Connector connector = new Connector(DEFAULT_PROTOCOL);
+        // phases of the other connectors are suffixed by their port
+        String phase = main ? "" : " " + connectorPort;
 
-        connector.setPort(port);
+        connector.setPort(connectorPort);
         connector.setURIEncoding("UTF-8");
         connector.setProperty("bindOnInit", "false");
 
-        if (compressingEnabled) {
-            connector.setProperty("compression", "on");
-            connector.setProperty("compressionMinSize", "4096");
-            connector.setProperty("noCompressionUserAgents", "gozilla, traviata");
-            connector.setProperty("compressableMimeType",
-                    "text/html,text/xhtml,text/xml,text/css,application/json,application/javascript");
+        if (staticDelivery != null) {
+            staticDelivery.configure(connector);
         }
 
+        connector.addLifecycleListener(timer.beginOn(Lifecycle.BEFORE_INIT_EVENT, "connector-init" + phase));
+        connector.addLifecycleListener(timer.endOn(Lifecycle.AFTER_INIT_EVENT, "connector-init" + phase));
+        connector.addLifecycleListener(timer.beginOn(Lifecycle.BEFORE_START_EVENT, "connector-start" + phase));
+        connector.addLifecycleListener(timer.endOn(Lifecycle.AFTER_START_EVENT, "connector-start" + phase));
+
         tomcat.getService().addConnector(connector);
-        tomcat.setConnector(connector);
+
+        if (main) {
+            tomcat.setConnector(connector);
+        }
 
         return connector;
     }
 
     /**
-     * Adds target/classes, if it exists, as an alternative resource dir. This
-     * is specially useful when executing the application inside an IDE.
+     * @return the main connector port: the connector configuration port when
+     * set, the launcher port otherwise
+     */
+    private int getMainPort() {
+        return connectorConfig.getPort() != null ? connectorConfig.getPort() : port;
+    }
+
+    /**
+     * Checks that no two connectors share a port, as the main port may have
+     * been set after the other connectors were added
+     */
+    private void checkPorts() {
+
+        Set<Integer> ports = new HashSet<>();
+
+        for (int connectorPort : getPorts()) {
+            if (!ports.add(connectorPort)) {
+                throw new IllegalStateException("Port " + connectorPort + " used by more than one connector");
+            }
+        }
+    }
+
+    /**
+     * @return the ports of every connector
+     */
+    private List<Integer> getPorts() {
+
+        List<Integer> ports = new ArrayList<>();
+        ports.add(getMainPort());
+
+        for (ConnectorConfig config : connectorConfigs) {
+            ports.add(config.getPort());
+        }
+
+        return ports;
+    }
+
+    /**
+     * Creates the context resources root, with the alternative resources, the
+     * resource cache and the pre-compressed resources when enabled.
      *
+     * @param tomcat
      * @param context
      *         server context
+     * @param webapp
+     *         web application
+     * @param documentBase
+     *         application document base
+     * @param main
+     *         determines whether this is the main application
      */
-    private void addAlternativeResources(StandardContext context) {
+    private void prepareResources(Tomcat tomcat, StandardContext context, Webapp webapp, File documentBase,
+                                  boolean main) {
+
+        MappedWarRoot resources = resourceCache != null ? resourceCache.createRoot(context) :
+                new MappedWarRoot(context);
+
+        resources.setWarMapped(warMapped);
+
+        // target/classes if existent
+        if (main) {
+            addAlternativeResources(resources);
+        }
+
+        if (precompressedResources != null) {
+            File cacheDir = new File(tomcat.getServer().getCatalinaBase(), "precompressed/" + webapp.getBaseName());
+
+            precompressedResources.configure(context, resources, documentBase, cacheDir);
+        }
+
+        if (staticDelivery != null) {
+            staticDelivery.configure(context, documentBase);
+        }
+
+        context.setResources(resources);
+    }
+
+    /**
+     * Adds target/classes, if it exists, as an alternative resource dir. This
+     * is specially useful when executing the application inside an IDE.
+     *
+     * @param resources
+     *         context resources root
+     */
+    private void addAlternativeResources(WebResourceRoot resources) {
         File alternative = new File("target/classes");
 
         if (alternative.exists()) {
-            WebResourceRoot resources = new StandardRoot(context);
-
             DirResourceSet directory = new DirResourceSet(resources, "/WEB-INF/classes",
                     alternative.getAbsolutePath(), "/");
 
             resources.addPreResources(directory);
-
-            context.setResources(resources);
         }
     }
 
@@ -0,0 +1,322 @@
+package com.github.marweck.tomcat.launcher;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Packed WAR extraction.
+ * <p>
+ * A WAR document base is extracted once into a directory named after the WAR
+ * and a hash of its entries names, sizes and CRCs, and that directory is
+ * reused on later starts while the WAR content is unchanged. Entries are
+ * extracted in parallel into a staging directory, renamed once complete, so
+ * an interrupted extraction is never reused. Directories of previous WAR
+ * versions are deleted.
+ *
+ * @author Marcio Carvalho
+ */
+public class WarExploder {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(WarExploder.class);
+
+    /**
+     * Suffix of the directories being extracted
+     */
+    private static final String STAGING = ".staging";
+
+    /**
+     * Directory holding the exploded WARs, or null for the default one
+     */
+    private final File directory;
+
+    /**
+     * Extraction threads
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Constructor taking the directory holding the exploded WARs
+     *
+     * @param directory
+     *         exploded WARs directory, created when missing
+     */
+    public WarExploder(File directory) {
+        if (directory == null) {
+            throw new IllegalStateException("Exploded WARs directory is null");
+        }
+
+        this.directory = directory;
+    }
+
+    /**
+     * Constructor keeping the exploded WARs in the persistent base directory
+     * when the launcher has one, in the temporary directory otherwise, one
+     * directory per working directory
+     */
+    public WarExploder() {
+        this.directory = null;
+    }
+
+    /**
+     * @return the exploded WARs directory, or null for the default one
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads
+     *         number of entries extracted in parallel. Defaults to the
+     *         number of processors
+     */
+    public WarExploder setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalStateException("Invalid extraction threads: " + threads);
+        }
+
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Extracts a WAR, unless already extracted with the same content
+     *
+     * @param war
+     *         packed WAR
+     * @return the exploded WAR directory
+     */
+    public File explode(File war) {
+        return explode(war, null);
+    }
+
+    /**
+     * Extracts a WAR, unless already extracted with the same content
+     *
+     * @param war
+     *         packed WAR
+     * @param defaultDirectory
+     *         exploded WARs directory used when none was configured, or null
+     *         for one in the temporary directory
+     * @return the exploded WAR directory
+     */
+    File explode(File war, File defaultDirectory) {
+
+        File directory = this.directory != null ? this.directory : defaultDirectory != null ? defaultDirectory :
+                new File(System.getProperty("java.io.tmpdir"),
+                        "tomcat-exploded-" + Integer.toHexString(new File("").getAbsolutePath().hashCode()));
+        String name = war.getName().replaceFirst("(?i)\\.war$", "");
+
+        try (ZipFile zip = new ZipFile(war)) {
+            File exploded = new File(directory, name + "-" + hash(zip));
+
+            if (exploded.isDirectory()) {
+                log.info("Reusing exploded WAR " + exploded);
+                return exploded;
+            }
+
+            long start = System.currentTimeMillis();
+            File staging = new File(directory, exploded.getName() + STAGING);
+
+            PathUtil.deleteTree(staging);
+
+            try {
+                extract(zip, staging);
+            } catch (IOException e) {
+                PathUtil.deleteTree(staging);
+                throw e;
+            }
+
+            try {
+                Files.move(staging.toPath(), exploded.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // another launcher may have completed the same extraction
+                if (!exploded.isDirectory()) {
+                    throw e;
+                }
+
+                PathUtil.deleteTree(staging);
+            }
+
+            log.info("WAR exploded in " + (System.currentTimeMillis() - start) + "ms: " + exploded);
+            deletePrevious(directory, name, exploded);
+
+            return exploded;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to explode " + war, e);
+        }
+    }
+
+    /**
+     * Hash of the entries names, sizes and CRCs, read from the central
+     * directory
+     *
+     * @param zip
+     * @return
+     */
+    private String hash(ZipFile zip) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                digest.update((entry.getName() + ":" + entry.getSize() + ":" + entry.getCrc() + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+
+            StringBuilder hex = new StringBuilder();
+            byte[] hash = digest.digest();
+
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Extracts every entry, creating the directories first and writing the
+     * files in parallel
+     *
+     * @param zip
+     * @param target
+     * @throws IOException
+     */
+    private void extract(ZipFile zip, File target) throws IOException {
+
+        Path root = target.toPath().toAbsolutePath().normalize();
+        List<ZipEntry> files = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+
+        Files.createDirectories(root);
+
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            Path path = resolve(root, entry);
+
+            if (entry.isDirectory()) {
+                Files.createDirectories(path);
+            } else {
+                Files.createDirectories(path.getParent());
+                files.add(entry);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, files.size())),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "war-exploder");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+
+            for (ZipEntry entry : files) {
+                tasks.add(executor.submit(() -> {
+                    Path path = resolve(root, entry);
+
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        Files.copy(in, path);
+                    }
+
+                    if (entry.getTime() != -1) {
+                        path.toFile().setLastModified(entry.getTime());
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted extraction", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param root
+     *         extraction directory
+     * @param entry
+     * @return the entry location, which must be inside the extraction
+     * directory
+     * @throws IOException
+     *         when the entry name escapes the extraction directory
+     */
+    private static Path resolve(Path root, ZipEntry entry) throws IOException {
+
+        Path path = root.resolve(entry.getName()).normalize();
+
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IOException("Invalid entry name: " + entry.getName());
+        }
+
+        return path;
+    }
+
+    /**
+     * Deletes the directories of the other versions of a WAR
+     *
+     * @param directory
+     *         exploded WARs directory
+     * @param name
+     *         WAR name
+     * @param current
+     *         current exploded WAR directory
+     */
+    private static void deletePrevious(File directory, String name, File current) {
+
+        File[] previous = directory.listFiles(file -> file.isDirectory() && !file.equals(current) &&
+                file.getName().matches(Pattern.quote(name) + "-[0-9a-f]{16}(" +
+                        Pattern.quote(STAGING) + ")?"));
+
+        if (previous == null) {
+            return;
+        }
+
+        for (File file : previous) {
+            try {
+                PathUtil.deleteTree(file);
+            } catch (IOException e) {
+                log.warn("Unable to delete previous exploded WAR " + file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.marweck.tomcat.launcher;
+
+import com.github.marweck.tomcat.session.DefaultSessionStore;
+import com.github.marweck.tomcat.session.SessionStore;
+
+import java.io.File;
+
+/**
+ * Web application mounted by the launcher, besides the main one.
+ * <p>
+ * Usage:
+ * <p>
+ * <pre>
+ * new Tomcat9Launcher(8080, "app")
+ * 	.addWebapp(new Webapp("admin", new File("../admin/src/main/webapp")))
+ * 	.launch();
+ * </pre>
+ *
+ * @author Marcio Carvalho
+ */
+public class Webapp {
+
+    /**
+     * Context path, empty for the root context
+     */
+    private final String path;
+
+    /**
+     * Document base, a directory or a war file
+     */
+    private final File documentBase;
+
+    /**
+     * Session store configuration
+     */
+    private final SessionStore sessionStore;
+
+    /**
+     * Full constructor
+     *
+     * @param path
+     *         Web context name. To define the root context, null must be used
+     * @param documentBase
+     *         Document base, a directory or a war file. When null, it is looked
+     *         up in the most likely locations
+     * @param sessionStore
+     *         Session store configuration
+     */
+    public Webapp(String path, File documentBase, SessionStore sessionStore) {
+
+        if (sessionStore == null) {
+            throw new IllegalStateException("Session store is null");
+        }
+
+        this.path = PathUtil.getContextPath(path);
+        this.documentBase = documentBase == null ? null : documentBase.getAbsoluteFile();
+        this.sessionStore = sessionStore;
+    }
+
+    /**
+     * Constructor using the Tomcat default session store
+     *
+     * @param path
+     *         Web context name. To define the root context, null must be used
+     * @param documentBase
+     *         Document base, a directory or a war file
+     */
+    public Webapp(String path, File documentBase) {
+        this(path, documentBase, new DefaultSessionStore());
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the document base, or the most likely location when not set
+     */
+    public File getDocumentBase() {
+        return documentBase != null ? documentBase : PathUtil.getDocumentBase();
+    }
+
+    public SessionStore getSessionStore() {
+        return sessionStore;
+    }
+
+    /**
+     * @return the context name used in directory names, ROOT for the root
+     * context
+     */
+    public String getBaseName() {
+        return path.isEmpty() ? "ROOT" : path.substring(1).replace('/', '#');
+    }
+}
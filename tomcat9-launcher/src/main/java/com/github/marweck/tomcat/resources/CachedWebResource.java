@@ -0,0 +1,233 @@
+package com.github.marweck.tomcat.resources;
+
+import org.apache.catalina.WebResource;
+import org.apache.catalina.WebResourceRoot;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.cert.Certificate;
+import java.util.jar.Manifest;
+
+/**
+ * Web resource whose metadata is read once, and whose content is kept in
+ * memory on first read when small enough
+ *
+ * @author Marcio Carvalho
+ */
+class CachedWebResource implements WebResource {
+
+    private final CachingResourceRoot root;
+
+    private final String key;
+
+    private final WebResource resource;
+
+    private final boolean exists;
+
+    private final boolean directory;
+
+    private final boolean file;
+
+    private final long lastModified;
+
+    private final long contentLength;
+
+    private final String lastModifiedHttp;
+
+    private final String eTag;
+
+    /**
+     * Time of the next validation against the resource set
+     */
+    private volatile long nextCheck;
+
+    private volatile byte[] content;
+
+    CachedWebResource(CachingResourceRoot root, String key, WebResource resource, long nextCheck) {
+        this.root = root;
+        this.key = key;
+        this.resource = resource;
+        this.exists = resource.exists();
+        this.directory = resource.isDirectory();
+        this.file = resource.isFile();
+        this.lastModified = resource.getLastModified();
+        this.contentLength = resource.getContentLength();
+        this.lastModifiedHttp = exists ? resource.getLastModifiedHttp() : null;
+        this.eTag = exists ? resource.getETag() : null;
+        this.nextCheck = nextCheck;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    boolean isExpired(long now) {
+        return now > nextCheck;
+    }
+
+    void setNextCheck(long nextCheck) {
+        this.nextCheck = nextCheck;
+    }
+
+    /**
+     * @param other
+     *         resource freshly read from the resource set
+     * @return whether the other resource is unchanged
+     */
+    boolean isSameAs(WebResource other) {
+        return exists == other.exists() && lastModified == other.getLastModified() &&
+                contentLength == other.getContentLength();
+    }
+
+    /**
+     * @return memory taken by the cached content, in bytes
+     */
+    long getContentSize() {
+        byte[] cached = content;
+        return cached == null ? 0 : cached.length;
+    }
+
+    @Override
+    public byte[] getContent() {
+
+        byte[] cached = content;
+
+        if (cached != null) {
+            return cached;
+        }
+
+        if (!file || contentLength > root.getObjectMaxSizeBytes()) {
+            return resource.getContent();
+        }
+
+        cached = resource.getContent();
+
+        if (cached != null) {
+            content = cached;
+            root.contentLoaded(this, cached.length);
+        }
+
+        return cached;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+
+        if (file && contentLength <= root.getObjectMaxSizeBytes()) {
+            byte[] cached = getContent();
+
+            if (cached != null) {
+                return new ByteArrayInputStream(cached);
+            }
+        }
+
+        return resource.getInputStream();
+    }
+
+    @Override
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String getLastModifiedHttp() {
+        return lastModifiedHttp;
+    }
+
+    @Override
+    public boolean exists() {
+        return exists;
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return resource.isVirtual();
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    @Override
+    public boolean isFile() {
+        return file;
+    }
+
+    @Override
+    public boolean delete() {
+        root.invalidate(key);
+        return resource.delete();
+    }
+
+    @Override
+    public String getName() {
+        return resource.getName();
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public String getCanonicalPath() {
+        return resource.getCanonicalPath();
+    }
+
+    @Override
+    public boolean canRead() {
+        return resource.canRead();
+    }
+
+    @Override
+    public String getWebappPath() {
+        return resource.getWebappPath();
+    }
+
+    @Override
+    public String getETag() {
+        return eTag;
+    }
+
+    @Override
+    public void setMimeType(String mimeType) {
+        resource.setMimeType(mimeType);
+    }
+
+    @Override
+    public String getMimeType() {
+        return resource.getMimeType();
+    }
+
+    @Override
+    public long getCreation() {
+        return resource.getCreation();
+    }
+
+    @Override
+    public URL getURL() {
+        return resource.getURL();
+    }
+
+    @Override
+    public URL getCodeBase() {
+        return resource.getCodeBase();
+    }
+
+    @Override
+    public WebResourceRoot getWebResourceRoot() {
+        return root;
+    }
+
+    @Override
+    public Certificate[] getCertificates() {
+        return resource.getCertificates();
+    }
+
+    @Override
+    public Manifest getManifest() {
+        return resource.getManifest();
+    }
+}
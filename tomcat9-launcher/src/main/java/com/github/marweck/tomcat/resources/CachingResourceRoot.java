@@ -0,0 +1,385 @@
+package com.github.marweck.tomcat.resources;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.WebResource;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.http.RequestUtil;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resources root with a size bounded LRU cache of the looked up resources.
+ * <p>
+ * Cached resources keep their metadata, so a hit does not touch the file
+ * system, and their content once read when not larger than the object max
+ * size. Missing resources are cached as well. A cached resource is checked
+ * against its resource set again once the TTL has elapsed. The least recently
+ * used resources are evicted when the cache size goes over the max size.
+ * Classes and JARs are not cached, as the class loader and the resource sets
+ * already handle them.
+ *
+ * @author Marcio Carvalho
+ */
+public class CachingResourceRoot extends MappedWarRoot implements ResourceCacheMBean {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(CachingResourceRoot.class);
+
+    /**
+     * Memory accounted to a cached resource besides its content, in bytes
+     */
+    private static final long ENTRY_OVERHEAD = 512;
+
+    /**
+     * Cached resources in least recently used order
+     */
+    private final LinkedHashMap<String, CachedWebResource> cache = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final long maxSize;
+
+    private final int objectMaxSize;
+
+    private final long ttl;
+
+    private final boolean preload;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Memory taken by the cached resources, guarded by the cache lock
+     */
+    private long size;
+
+    private ObjectName objectName;
+
+    /**
+     * @param context
+     *         application context
+     * @param maxSize
+     *         maximum cache size, in bytes
+     * @param objectMaxSize
+     *         maximum size of a cached content, in bytes
+     * @param ttl
+     *         milliseconds a cached resource is used before being checked
+     *         again
+     * @param preload
+     *         determines whether the static resources are read into the cache
+     *         at startup
+     */
+    public CachingResourceRoot(Context context, long maxSize, int objectMaxSize, long ttl, boolean preload) {
+        super(context);
+
+        this.maxSize = maxSize;
+        this.objectMaxSize = objectMaxSize;
+        this.ttl = ttl;
+        this.preload = preload;
+
+        // replaces the Tomcat cache
+        setCachingAllowed(false);
+    }
+
+    @Override
+    protected WebResource getResource(String path, boolean validate, boolean useClassLoaderResources) {
+
+        String normalized = normalize(path);
+
+        // invalid paths are rejected by the resource sets
+        if (normalized == null || noCache(normalized)) {
+            return super.getResource(path, validate, useClassLoaderResources);
+        }
+
+        String key = useClassLoaderResources ? "class:" + normalized : normalized;
+        long now = System.currentTimeMillis();
+        CachedWebResource cached;
+
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+
+        if (cached != null && !cached.isExpired(now)) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        WebResource resource = super.getResource(path, validate, useClassLoaderResources);
+
+        if (cached != null && cached.isSameAs(resource)) {
+            cached.setNextCheck(now + ttl);
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        misses.incrementAndGet();
+        cached = new CachedWebResource(this, key, resource, now + ttl);
+
+        synchronized (cache) {
+            CachedWebResource previous = cache.put(key, cached);
+
+            if (previous != null) {
+                size -= ENTRY_OVERHEAD + previous.getContentSize();
+            }
+
+            size += ENTRY_OVERHEAD;
+            evict();
+        }
+
+        return cached;
+    }
+
+    /**
+     * Same rule as the Tomcat cache
+     *
+     * @param path
+     * @return true for the classes, loaded once by the class loader, and the
+     * JARs, opened by their resource sets
+     */
+    private static boolean noCache(String path) {
+        return (path.endsWith(".class") &&
+                (path.startsWith("/WEB-INF/classes/") || path.startsWith("/WEB-INF/lib/"))) ||
+                (path.startsWith("/WEB-INF/lib/") && path.endsWith(".jar"));
+    }
+
+    /**
+     * Same normalization as the resource sets validation, so every spelling
+     * of a path shares its cache entry
+     *
+     * @param path
+     * @return normalized path, or null when invalid
+     */
+    private static String normalize(String path) {
+
+        if (path == null || !path.startsWith("/")) {
+            return null;
+        }
+
+        String normalized = RequestUtil.normalize(path, File.separatorChar == '\\');
+
+        return normalized == null || !normalized.startsWith("/") ? null : normalized;
+    }
+
+    @Override
+    public boolean write(String path, InputStream is, boolean overwrite) {
+
+        String normalized = normalize(path);
+
+        if (normalized != null) {
+            invalidate(normalized);
+            invalidate("class:" + normalized);
+        }
+
+        return super.write(path, is, overwrite);
+    }
+
+    int getObjectMaxSizeBytes() {
+        return objectMaxSize;
+    }
+
+    /**
+     * Accounts the content read into a cached resource
+     *
+     * @param resource
+     * @param bytes
+     *         content size
+     */
+    void contentLoaded(CachedWebResource resource, long bytes) {
+        synchronized (cache) {
+            if (cache.get(resource.getKey()) == resource) {
+                size += bytes;
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Drops a cached resource
+     *
+     * @param key
+     */
+    void invalidate(String key) {
+        synchronized (cache) {
+            CachedWebResource previous = cache.remove(key);
+
+            if (previous != null) {
+                size -= ENTRY_OVERHEAD + previous.getContentSize();
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used resources beyond the max size. Must be
+     * called holding the cache lock.
+     */
+    private void evict() {
+
+        Iterator<CachedWebResource> resources = cache.values().iterator();
+
+        while (size > maxSize && resources.hasNext()) {
+            CachedWebResource resource = resources.next();
+            resources.remove();
+            size -= ENTRY_OVERHEAD + resource.getContentSize();
+            evictions.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected void startInternal() throws LifecycleException {
+
+        super.startInternal();
+        register();
+
+        if (preload) {
+            Thread loader = new Thread(this::preload, "resource-cache-preload");
+            loader.setDaemon(true);
+            loader.start();
+        }
+    }
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+
+        log.info("Resource cache of " + getContext().getName() + ": " + hits.get() + " hits, " + misses.get() +
+                " misses, " + evictions.get() + " evictions");
+
+        unregister();
+        clear();
+
+        super.stopInternal();
+    }
+
+    /**
+     * Reads the static resources into the cache, until the cache is full
+     */
+    private void preload() {
+
+        long start = System.currentTimeMillis();
+        int count = preload("/");
+
+        log.info("Resource cache preloaded " + count + " resources, " + getSize() + " bytes in " +
+                (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private int preload(String path) {
+
+        int count = 0;
+
+        for (WebResource resource : listResources(path)) {
+            String webappPath = resource.getWebappPath();
+
+            if (getSize() >= maxSize || !getState().isAvailable()) {
+                break;
+            }
+
+            if (resource.isDirectory()) {
+                String directory = webappPath.endsWith("/") ? webappPath : webappPath + "/";
+
+                if (!"/WEB-INF/".equals(directory) && !"/META-INF/".equals(directory)) {
+                    count += preload(directory);
+                }
+            } else if (resource.isFile() && resource.getContentLength() <= objectMaxSize) {
+                getResource(webappPath).getContent();
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private void register() {
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String name = getContext().getName() == null || getContext().getName().isEmpty() ? "/" : getContext().getName();
+
+        try {
+            objectName = new ObjectName("com.github.marweck.tomcat:type=ResourceCache,context=" + ObjectName.quote(name));
+
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+
+            server.registerMBean(new StandardMBean(this, ResourceCacheMBean.class), objectName);
+        } catch (JMException e) {
+            log.warn("Unable to register the resource cache of " + name, e);
+        }
+    }
+
+    private void unregister() {
+
+        if (objectName == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.debug("Unable to unregister " + objectName, e);
+        }
+
+        objectName = null;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public long getSize() {
+        synchronized (cache) {
+            return size;
+        }
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int getEntryCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.github.marweck.tomcat.resources;
+
+import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.webresources.AbstractResource;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.cert.Certificate;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Entry of a memory mapped WAR. The root directory has no entry.
+ *
+ * @author Marcio Carvalho
+ */
+class MappedWarResource extends AbstractResource {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(MappedWarResource.class);
+
+    private final MappedWarResourceSet resourceSet;
+
+    /**
+     * Entry index, -1 for the root directory
+     */
+    private final int entry;
+
+    MappedWarResource(WebResourceRoot root, MappedWarResourceSet resourceSet, int entry, String webAppPath) {
+        super(root, webAppPath);
+        this.resourceSet = resourceSet;
+        this.entry = entry;
+    }
+
+    /**
+     * @param resourceSet
+     * @param entry
+     *         file entry index
+     * @return an input stream reading the stored entries straight from the
+     * mapping, and inflating the deflated ones
+     * @throws IOException
+     */
+    static InputStream open(MappedWarResourceSet resourceSet, int entry) throws IOException {
+
+        InputStream data = new ByteBufferInputStream(resourceSet.getData(entry));
+
+        if (resourceSet.getMethod(entry) == MappedWarResourceSet.STORED) {
+            return data;
+        }
+
+        return new EntryInflaterInputStream(data);
+    }
+
+    @Override
+    protected InputStream doGetInputStream() {
+
+        if (!isFile()) {
+            return null;
+        }
+
+        try {
+            return open(resourceSet, entry);
+        } catch (IOException e) {
+            log.warn("Unable to read " + getWebappPath(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] getContent() {
+
+        if (!isFile()) {
+            return null;
+        }
+
+        try {
+            ByteBuffer data = resourceSet.getData(entry);
+            byte[] content = new byte[(int) getContentLength()];
+
+            if (resourceSet.getMethod(entry) == MappedWarResourceSet.STORED) {
+                data.get(content);
+                return content;
+            }
+
+            byte[] compressed = new byte[data.remaining()];
+            data.get(compressed);
+
+            Inflater inflater = new Inflater(true);
+
+            try {
+                inflater.setInput(compressed);
+
+                int length = 0;
+
+                while (length < content.length && !inflater.finished()) {
+                    int read = inflater.inflate(content, length, content.length - length);
+
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+
+                    length += read;
+                }
+
+                if (length != content.length) {
+                    throw new IOException("Expected " + content.length + " bytes, inflated " + length);
+                }
+            } finally {
+                inflater.end();
+            }
+
+            return content;
+        } catch (IOException | DataFormatException e) {
+            log.warn("Unable to read " + getWebappPath(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public long getLastModified() {
+        return resourceSet.getLastModified(entry);
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return false;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return entry < 0 || resourceSet.isDirectory(entry);
+    }
+
+    @Override
+    public boolean isFile() {
+        return !isDirectory();
+    }
+
+    @Override
+    public boolean delete() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        if (entry < 0) {
+            return "";
+        }
+
+        String name = resourceSet.getName(entry);
+        int end = name.endsWith("/") ? name.length() - 1 : name.length();
+        return name.substring(name.lastIndexOf('/', end - 1) + 1, end);
+    }
+
+    @Override
+    public long getContentLength() {
+        return entry < 0 ? -1 : resourceSet.getSize(entry);
+    }
+
+    @Override
+    public String getCanonicalPath() {
+        return null;
+    }
+
+    @Override
+    public boolean canRead() {
+        return true;
+    }
+
+    @Override
+    public long getCreation() {
+        return getLastModified();
+    }
+
+    @Override
+    public URL getURL() {
+        try {
+            return entry < 0 ? resourceSet.getBaseUrl() : resourceSet.getEntryUrl(entry);
+        } catch (MalformedURLException e) {
+            log.debug("Unable to create the URL of " + getWebappPath(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public URL getCodeBase() {
+        return resourceSet.getBaseUrl();
+    }
+
+    @Override
+    public Certificate[] getCertificates() {
+        return null;
+    }
+
+    @Override
+    public Manifest getManifest() {
+        return resourceSet.getWarManifest();
+    }
+
+    @Override
+    protected Log getLog() {
+        return log;
+    }
+
+    /**
+     * Input stream over a slice of the mapping
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Inflates a raw deflated entry, which needs a dummy byte past its data,
+     * and releases the inflater on close
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+
+        private boolean eof;
+
+        private boolean closed;
+
+        EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), 8192);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+
+            if (eof) {
+                throw new EOFException("Unexpected end of deflated entry");
+            }
+
+            len = in.read(buf, 0, buf.length);
+
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                inf.end();
+                super.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package com.github.marweck.tomcat.resources;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.WebResource;
+import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.webresources.AbstractResourceSet;
+import org.apache.catalina.webresources.EmptyResource;
+import org.apache.tomcat.util.buf.UriUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Manifest;
+
+/**
+ * Read only resource set serving a packed WAR from a memory mapping.
+ * <p>
+ * The WAR is mapped once and its central directory indexed into sorted
+ * arrays, so a lookup is a binary search and never opens a zip entry. Stored
+ * entries are read as slices of the mapping, deflated ones are inflated from
+ * it. Directories missing from the archive are implied by the paths of their
+ * entries.
+ * <p>
+ * ZIP64, encrypted entries and compression methods other than stored and
+ * deflated are not supported, nor WARs larger than 2GB. The jars of
+ * WEB-INF/lib are still opened by Tomcat from the WAR URLs of their entries.
+ *
+ * @author Marcio Carvalho
+ */
+public class MappedWarResourceSet extends AbstractResourceSet {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    private static final int END_SIZE = 22;
+
+    private static final int CENTRAL_SIZE = 46;
+
+    private static final int LOCAL_SIZE = 30;
+
+    static final int STORED = 0;
+
+    static final int DEFLATED = 8;
+
+    /**
+     * Method of the directories implied by their entries
+     */
+    private static final int IMPLIED = -1;
+
+    private final File war;
+
+    private ByteBuffer mapping;
+
+    /**
+     * Sorted entry names, without leading slash. Directory names end with a
+     * slash
+     */
+    private String[] names;
+
+    private int[] methods;
+
+    private int[] compressedSizes;
+
+    private int[] sizes;
+
+    private int[] dosTimes;
+
+    private int[] headerOffsets;
+
+    /**
+     * Data offsets, read from the local headers on first access. -1 when
+     * not read yet
+     */
+    private int[] dataOffsets;
+
+    private long lastModified;
+
+    private URL baseUrl;
+
+    /**
+     * Creates the resource set serving a WAR as the root of a web application
+     *
+     * @param root
+     *         resources root
+     * @param base
+     *         absolute path of the WAR
+     * @throws IllegalStateException
+     *         when the WAR cannot be mapped
+     */
+    public MappedWarResourceSet(WebResourceRoot root, String base) {
+        this.war = new File(base);
+
+        setRoot(root);
+        setWebAppMount("/");
+        setInternalPath("/");
+        setBase(base);
+
+        try {
+            init();
+        } catch (LifecycleException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected void initInternal() throws LifecycleException {
+
+        try (FileChannel channel = FileChannel.open(war.toPath(), StandardOpenOption.READ)) {
+
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Too large to be mapped: " + channel.size() + " bytes");
+            }
+
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            lastModified = war.lastModified();
+            baseUrl = UriUtil.buildJarSafeUrl(war);
+
+            index();
+        } catch (IOException e) {
+            throw new LifecycleException("Unable to map " + war, e);
+        }
+
+        int manifest = find("META-INF/MANIFEST.MF");
+
+        if (manifest >= 0) {
+            try (InputStream in = open(manifest)) {
+                setManifest(new Manifest(in));
+            } catch (IOException e) {
+                throw new LifecycleException("Invalid manifest in " + war, e);
+            }
+        }
+    }
+
+    /**
+     * Reads the central directory into the entry table
+     *
+     * @throws IOException
+     *         when the archive is invalid or not supported
+     */
+    private void index() throws IOException {
+
+        int end = findEnd();
+        int count = mapping.getShort(end + 10) & 0xffff;
+        int position = mapping.getInt(end + 16);
+
+        if (count == 0xffff || position == -1) {
+            throw new IOException("ZIP64 archives are not supported");
+        }
+
+        // entry name -> central directory position, IMPLIED for directories
+        TreeMap<String, Integer> entries = new TreeMap<>();
+
+        for (int i = 0; i < count; i++) {
+
+            if (position < 0 || position + CENTRAL_SIZE > mapping.limit() ||
+                    mapping.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new IOException("Invalid central directory entry at " + position);
+            }
+
+            int flags = mapping.getShort(position + 8) & 0xffff;
+            int method = mapping.getShort(position + 10) & 0xffff;
+            int nameLength = mapping.getShort(position + 28) & 0xffff;
+            int extraLength = mapping.getShort(position + 30) & 0xffff;
+            int commentLength = mapping.getShort(position + 32) & 0xffff;
+
+            if ((flags & 1) != 0 || (method != STORED && method != DEFLATED)) {
+                throw new IOException("Unsupported entry at " + position + ": flags " + flags + ", method " + method);
+            }
+
+            byte[] name = new byte[nameLength];
+            ByteBuffer buffer = mapping.duplicate();
+            buffer.position(position + CENTRAL_SIZE);
+            buffer.get(name);
+
+            String entry = new String(name, StandardCharsets.UTF_8);
+
+            if (!entry.isEmpty() && !entry.startsWith("/")) {
+                entries.putIfAbsent(entry, position);
+
+                for (int slash = entry.indexOf('/'); slash >= 0 && slash < entry.length() - 1;
+                     slash = entry.indexOf('/', slash + 1)) {
+                    entries.putIfAbsent(entry.substring(0, slash + 1), IMPLIED);
+                }
+            }
+
+            position += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        int size = entries.size();
+
+        names = new String[size];
+        methods = new int[size];
+        compressedSizes = new int[size];
+        sizes = new int[size];
+        dosTimes = new int[size];
+        headerOffsets = new int[size];
+        dataOffsets = new int[size];
+
+        int i = 0;
+
+        for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+            int central = entry.getValue();
+
+            names[i] = entry.getKey();
+            dataOffsets[i] = -1;
+
+            if (central == IMPLIED) {
+                methods[i] = IMPLIED;
+            } else {
+                methods[i] = mapping.getShort(central + 10) & 0xffff;
+                dosTimes[i] = mapping.getInt(central + 12);
+                compressedSizes[i] = mapping.getInt(central + 20);
+                sizes[i] = mapping.getInt(central + 24);
+                headerOffsets[i] = mapping.getInt(central + 42);
+            }
+
+            i++;
+        }
+    }
+
+    /**
+     * @return position of the end of central directory record
+     * @throws IOException
+     *         when not found
+     */
+    private int findEnd() throws IOException {
+
+        int last = mapping.limit() - END_SIZE;
+
+        // the record is followed by a comment of up to 64KB
+        for (int position = last; position >= 0 && position >= last - 0xffff; position--) {
+            if (mapping.getInt(position) == END_SIGNATURE) {
+                return position;
+            }
+        }
+
+        throw new IOException("Not a zip file");
+    }
+
+    /**
+     * @param name
+     *         entry name
+     * @return entry index, or a negative value when absent
+     */
+    int find(String name) {
+        return Arrays.binarySearch(names, name);
+    }
+
+    String getName(int entry) {
+        return names[entry];
+    }
+
+    int getMethod(int entry) {
+        return methods[entry];
+    }
+
+    boolean isDirectory(int entry) {
+        return names[entry].endsWith("/");
+    }
+
+    long getSize(int entry) {
+        return isDirectory(entry) ? -1 : sizes[entry] & 0xffffffffL;
+    }
+
+    /**
+     * @param entry
+     *         entry index, -1 for the root directory
+     * @return entry last modified time, the WAR one for the implied
+     * directories
+     */
+    long getLastModified(int entry) {
+
+        if (entry < 0 || methods[entry] == IMPLIED) {
+            return lastModified;
+        }
+
+        int time = dosTimes[entry];
+        int date = time >>> 16;
+
+        try {
+            return LocalDateTime.of(((date >> 9) & 0x7f) + 1980, (date >> 5) & 0x0f, date & 0x1f,
+                    (time >> 11) & 0x1f, (time >> 5) & 0x3f, (time << 1) & 0x3e)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return lastModified;
+        }
+    }
+
+    /**
+     * @param entry
+     *         file entry index
+     * @return the raw entry data, stored or deflated, as a slice of the
+     * mapping
+     * @throws IOException
+     *         when the local header is invalid
+     */
+    ByteBuffer getData(int entry) throws IOException {
+
+        int offset = dataOffsets[entry];
+
+        if (offset < 0) {
+            int header = headerOffsets[entry];
+
+            if (header < 0 || header + LOCAL_SIZE > mapping.limit() || mapping.getInt(header) != LOCAL_SIGNATURE) {
+                throw new IOException("Invalid local header of " + names[entry] + " in " + war);
+            }
+
+            offset = header + LOCAL_SIZE + (mapping.getShort(header + 26) & 0xffff) +
+                    (mapping.getShort(header + 28) & 0xffff);
+            dataOffsets[entry] = offset;
+        }
+
+        int length = compressedSizes[entry];
+
+        if (length < 0 || offset + length > mapping.limit()) {
+            throw new IOException("Truncated entry " + names[entry] + " in " + war);
+        }
+
+        ByteBuffer data = mapping.duplicate();
+        data.position(offset);
+        data.limit(offset + length);
+        return data.slice();
+    }
+
+    /**
+     * @param entry
+     *         file entry index
+     * @return an input stream over the entry content
+     * @throws IOException
+     */
+    InputStream open(int entry) throws IOException {
+        return MappedWarResource.open(this, entry);
+    }
+
+    URL getEntryUrl(int entry) throws MalformedURLException {
+        return new URL("war:" + baseUrl + UriUtil.getWarSeparator() + names[entry]);
+    }
+
+    Manifest getWarManifest() {
+        return getManifest();
+    }
+
+    /**
+     * @param path
+     *         web application path
+     * @return entry name of the path, without leading slash
+     */
+    private String toName(String path) {
+        return path.substring(1);
+    }
+
+    @Override
+    public WebResource getResource(String path) {
+
+        checkPath(path);
+
+        WebResourceRoot root = getRoot();
+
+        if ("/".equals(path)) {
+            return new MappedWarResource(root, this, -1, path);
+        }
+
+        String name = toName(path);
+        int entry = find(name);
+
+        if (entry < 0 && !name.endsWith("/")) {
+            entry = find(name + "/");
+        }
+
+        if (entry < 0) {
+            return new EmptyResource(root, path);
+        }
+
+        return new MappedWarResource(root, this, entry, path);
+    }
+
+    @Override
+    public String[] list(String path) {
+
+        List<String> children = new ArrayList<>();
+
+        for (String child : children(path)) {
+            children.add(child.endsWith("/") ? child.substring(0, child.length() - 1) : child);
+        }
+
+        return children.toArray(new String[0]);
+    }
+
+    @Override
+    public Set<String> listWebAppPaths(String path) {
+
+        String directory = path.endsWith("/") ? path : path + "/";
+        Set<String> paths = new LinkedHashSet<>();
+
+        for (String child : children(path)) {
+            paths.add(directory + child);
+        }
+
+        return paths;
+    }
+
+    /**
+     * @param path
+     *         web application path of a directory
+     * @return names of the direct children of the directory, directories
+     * ending with a slash
+     */
+    private List<String> children(String path) {
+
+        checkPath(path);
+
+        String prefix = toName(path.endsWith("/") ? path : path + "/");
+        List<String> children = new ArrayList<>();
+
+        if (!prefix.isEmpty() && find(prefix) < 0) {
+            return children;
+        }
+
+        int start = prefix.isEmpty() ? 0 : find(prefix) + 1;
+
+        for (int i = start; i < names.length && names[i].startsWith(prefix); i++) {
+            String child = names[i].substring(prefix.length());
+            int slash = child.indexOf('/');
+
+            if (slash < 0 || slash == child.length() - 1) {
+                children.add(child);
+            }
+        }
+
+        return children;
+    }
+
+    @Override
+    public boolean mkdir(String path) {
+        checkPath(path);
+        return false;
+    }
+
+    @Override
+    public boolean write(String path, InputStream is, boolean overwrite) {
+        checkPath(path);
+        return false;
+    }
+
+    @Override
+    public URL getBaseUrl() {
+        return baseUrl;
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) {
+        if (!readOnly) {
+            throw new IllegalArgumentException("Mapped WAR resources are read only");
+        }
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public void gc() {
+        // nothing held besides the mapping, released with the resource set
+    }
+}
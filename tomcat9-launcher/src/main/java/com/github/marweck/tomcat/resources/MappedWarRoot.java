@@ -0,0 +1,76 @@
+package com.github.marweck.tomcat.resources;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.WebResourceSet;
+import org.apache.catalina.webresources.StandardRoot;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Resources root serving a packed WAR document base through a
+ * {@link MappedWarResourceSet} when WAR mapping is enabled. WARs which
+ * cannot be mapped are read by the Tomcat WAR resource set.
+ *
+ * @author Marcio Carvalho
+ */
+public class MappedWarRoot extends StandardRoot {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(MappedWarRoot.class);
+
+    /**
+     * Determines whether a packed WAR is memory mapped
+     */
+    private boolean warMapped;
+
+    /**
+     * @param context
+     *         application context
+     */
+    public MappedWarRoot(Context context) {
+        super(context);
+    }
+
+    public boolean isWarMapped() {
+        return warMapped;
+    }
+
+    /**
+     * @param warMapped
+     *         Memory maps a packed WAR document base instead of reading it as
+     *         a zip file
+     */
+    public void setWarMapped(boolean warMapped) {
+        this.warMapped = warMapped;
+    }
+
+    @Override
+    protected WebResourceSet createMainResourceSet() {
+
+        String docBase = getContext().getDocBase();
+
+        if (warMapped && docBase != null && docBase.toLowerCase(Locale.ENGLISH).endsWith(".war")) {
+            File war = new File(docBase);
+
+            if (!war.isAbsolute()) {
+                war = new File(((Host) getContext().getParent()).getAppBaseFile(), war.getPath());
+            }
+
+            if (war.isFile()) {
+                try {
+                    return new MappedWarResourceSet(this, war.getAbsolutePath());
+                } catch (IllegalStateException e) {
+                    log.warn("Unable to map " + war + ", reading it as a zip file", e);
+                }
+            }
+        }
+
+        return super.createMainResourceSet();
+    }
+}
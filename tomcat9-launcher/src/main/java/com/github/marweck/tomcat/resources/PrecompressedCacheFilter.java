@@ -0,0 +1,53 @@
+package com.github.marweck.tomcat.resources;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Hides the .gz siblings built by the warm-up compressor from direct
+ * requests. The default servlet still finds them through the resources root,
+ * but a request for one of them is answered as if it did not exist, unless
+ * the document base ships it.
+ *
+ * @author Marcio Carvalho
+ */
+class PrecompressedCacheFilter implements Filter {
+
+    /**
+     * Mounted directory of the built siblings
+     */
+    private final File cacheDir;
+
+    /**
+     * Application document base
+     */
+    private final File documentBase;
+
+    PrecompressedCacheFilter(File cacheDir, File documentBase) {
+        this.cacheDir = cacheDir;
+        this.documentBase = documentBase;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String path = httpRequest.getServletPath() +
+                (httpRequest.getPathInfo() != null ? httpRequest.getPathInfo() : "");
+
+        if (new File(cacheDir, path).isFile() && !new File(documentBase, path).isFile()) {
+            ((HttpServletResponse) response).sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        chain.doFilter(request, response);
+    }
+}
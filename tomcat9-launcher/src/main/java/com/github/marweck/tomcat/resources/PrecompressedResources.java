@@ -0,0 +1,339 @@
+package com.github.marweck.tomcat.resources;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.webresources.DirResourceSet;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pre-compressed static resources.
+ * <p>
+ * The default servlet serves the .br and .gz siblings of a static resource
+ * instead of compressing it on every request. Siblings shipped inside the
+ * document base are used as they are. The missing .gz siblings are built once
+ * by a warm-up compressor into a cache directory under the Tomcat base dir,
+ * which is mounted over the web application root, and rebuilt when the size
+ * or modification time of their source changes. Built siblings are only
+ * served in place of their source, never requested directly.
+ *
+ * @author Marcio Carvalho
+ */
+public class PrecompressedResources {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(PrecompressedResources.class);
+
+    /**
+     * Default servlet name, as registered by Tomcat.initWebappDefaults
+     */
+    private static final String DEFAULT_SERVLET = "default";
+
+    /**
+     * Encodings served by the default servlet, in order of preference
+     */
+    private static final String PRECOMPRESSED_FORMATS = "br=.br,gzip=.gz";
+
+    /**
+     * Cache subdirectory of the built siblings, mounted over the root
+     */
+    private static final String SIBLINGS_DIR = "siblings";
+
+    /**
+     * Cache subdirectory keeping the size and modification time of the
+     * source of each built sibling
+     */
+    private static final String SOURCES_DIR = "sources";
+
+    /**
+     * Text resources worth compressing
+     */
+    private static final String[] DEFAULT_EXTENSIONS = {
+            "html", "htm", "xhtml", "css", "js", "mjs", "json", "map", "xml", "svg", "txt", "wasm"};
+
+    /**
+     * File extensions compressed by the warm-up compressor
+     */
+    private final Set<String> extensions = new LinkedHashSet<>(Arrays.asList(DEFAULT_EXTENSIONS));
+
+    /**
+     * Smaller files are not compressed
+     */
+    private int minSize = 1024;
+
+    /**
+     * Deflate level used by the warm-up compressor
+     */
+    private int level = Deflater.BEST_COMPRESSION;
+
+    /**
+     * Determines whether the warm-up compressor must run
+     */
+    private boolean warmUp = true;
+
+    public Set<String> getExtensions() {
+        return extensions;
+    }
+
+    /**
+     * @param extensions
+     *         file extensions compressed by the warm-up compressor, without
+     *         the leading dot
+     */
+    public PrecompressedResources setExtensions(String... extensions) {
+        this.extensions.clear();
+
+        for (String extension : extensions) {
+            this.extensions.add(extension.toLowerCase(Locale.ENGLISH));
+        }
+
+        return this;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @param minSize
+     *         files smaller than this size, in bytes, are not compressed
+     */
+    public PrecompressedResources setMinSize(int minSize) {
+        this.minSize = minSize;
+        return this;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @param level
+     *         deflate level used by the warm-up compressor, from 1 to 9
+     */
+    public PrecompressedResources setLevel(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid deflate level: " + level);
+        }
+
+        this.level = level;
+        return this;
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * @param warmUp
+     *         Builds the missing .gz siblings in background at startup. When
+     *         disabled, only the siblings shipped in the document base are
+     *         served
+     */
+    public PrecompressedResources setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+        return this;
+    }
+
+    /**
+     * Makes the default servlet serve the pre-compressed siblings, mounts the
+     * cache directory over the web application root, hiding it from direct
+     * requests, and starts the warm-up compressor
+     *
+     * @param context
+     *         application context
+     * @param resources
+     *         context resources root
+     * @param documentBase
+     *         application document base
+     * @param cacheDir
+     *         directory where the compressed siblings are cached
+     */
+    public void configure(Context context, WebResourceRoot resources, File documentBase, File cacheDir) {
+
+        context.addLifecycleListener(new PrecompressedListener());
+
+        if (!warmUp) {
+            return;
+        }
+
+        if (!documentBase.isDirectory()) {
+            log.info("Document base is not a directory, skipping the pre-compression warm-up");
+            return;
+        }
+
+        File siblingsDir = new File(cacheDir, SIBLINGS_DIR);
+
+        if (!siblingsDir.isDirectory() && !siblingsDir.mkdirs()) {
+            throw new IllegalStateException("Unable to create the pre-compressed cache dir " + siblingsDir);
+        }
+
+        resources.addPostResources(new DirResourceSet(resources, "/", siblingsDir.getAbsolutePath(), "/"));
+        addCacheFilter(context, siblingsDir, documentBase);
+
+        Thread compressor = new Thread(() -> compressAll(documentBase.toPath(), cacheDir.toPath()),
+                "precompressed-warm-up");
+        compressor.setDaemon(true);
+        compressor.start();
+    }
+
+    /**
+     * Answers the direct requests of the built siblings with a 404
+     *
+     * @param context
+     * @param siblingsDir
+     * @param documentBase
+     */
+    private void addCacheFilter(Context context, File siblingsDir, File documentBase) {
+
+        FilterDef filterDef = new FilterDef();
+        filterDef.setFilterName("precompressedCache");
+        filterDef.setFilterClass(PrecompressedCacheFilter.class.getName());
+        filterDef.setFilter(new PrecompressedCacheFilter(siblingsDir, documentBase));
+        filterDef.setAsyncSupported("true");
+        context.addFilterDef(filterDef);
+
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName(filterDef.getFilterName());
+        filterMap.addURLPattern("*.gz");
+        context.addFilterMapBefore(filterMap);
+    }
+
+    /**
+     * Walks the document base building the missing or stale .gz siblings
+     *
+     * @param documentBase
+     * @param cacheDir
+     */
+    private void compressAll(final Path documentBase, final Path cacheDir) {
+
+        long start = System.currentTimeMillis();
+        final int[] count = {0};
+
+        try {
+            Files.walkFileTree(documentBase, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (isCompressible(file, attrs) && !Files.exists(sibling(file, ".gz"))) {
+                        String relative = documentBase.relativize(file).toString();
+                        Path target = sibling(cacheDir.resolve(SIBLINGS_DIR).resolve(relative), ".gz");
+                        Path source = cacheDir.resolve(SOURCES_DIR).resolve(relative);
+                        byte[] key = (attrs.size() + ":" + attrs.lastModifiedTime().toMillis())
+                                .getBytes(StandardCharsets.UTF_8);
+
+                        if (!Files.exists(target) || !Files.exists(source) ||
+                                !Arrays.equals(key, Files.readAllBytes(source))) {
+                            compress(file, target, cacheDir);
+                            Files.createDirectories(source.getParent());
+                            Files.write(source, key);
+                            count[0]++;
+                        }
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Pre-compression warm-up failed", e);
+        }
+
+        log.info("Pre-compressed " + count[0] + " resources in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private boolean isCompressible(Path file, BasicFileAttributes attrs) {
+
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+
+        return attrs.isRegularFile() && attrs.size() >= minSize && dot != -1 &&
+                extensions.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    private Path sibling(Path file, String suffix) {
+        return file.resolveSibling(file.getFileName().toString() + suffix);
+    }
+
+    /**
+     * Gzips the file into a temporary file, moved over the target when done,
+     * so the default servlet never serves a partial file
+     *
+     * @param source
+     * @param target
+     * @param tempDir
+     *         directory of the temporary file, outside of the mounted one
+     * @throws IOException
+     */
+    private void compress(Path source, Path target, Path tempDir) throws IOException {
+
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(tempDir, target.getFileName().toString(), ".tmp");
+
+        try (OutputStream out = new LevelGZIPOutputStream(Files.newOutputStream(temp), level)) {
+            Files.copy(source, out);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * GZIP stream with a configurable deflate level
+     */
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+
+        LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * Enables the pre-compressed resources on the default servlet once the
+     * web.xml has been processed, so an overridden default servlet is covered
+     * as well
+     */
+    private static class PrecompressedListener implements LifecycleListener {
+
+        @Override
+        public void lifecycleEvent(LifecycleEvent event) {
+
+            if (!Lifecycle.CONFIGURE_START_EVENT.equals(event.getType())) {
+                return;
+            }
+
+            Container child = ((Context) event.getLifecycle()).findChild(DEFAULT_SERVLET);
+
+            if (child instanceof Wrapper && ((Wrapper) child).findInitParameter("precompressed") == null) {
+                ((Wrapper) child).addInitParameter("precompressed", PRECOMPRESSED_FORMATS);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.marweck.tomcat.resources;
+
+import org.apache.catalina.Context;
+
+/**
+ * Static resource cache configuration.
+ * <p>
+ * Looked up resources are kept in a size bounded LRU cache, their content
+ * included when small enough, so serving them again does not touch the file
+ * system or the WAR. Hits, misses and evictions are exposed through a JMX
+ * MBean named {@code com.github.marweck.tomcat:type=ResourceCache,context=<path>}.
+ *
+ * @author Marcio Carvalho
+ */
+public class ResourceCache {
+
+    /**
+     * Determines whether resources are cached at all
+     */
+    private boolean cachingAllowed = true;
+
+    /**
+     * Maximum cache size, in kilobytes
+     */
+    private long maxSize = 10240;
+
+    /**
+     * Maximum size of a cached content, in kilobytes
+     */
+    private int objectMaxSize = 512;
+
+    /**
+     * Milliseconds a cached resource is used before being checked again
+     */
+    private long ttl = 5000;
+
+    /**
+     * Determines whether the static resources are read into the cache at
+     * startup
+     */
+    private boolean preload;
+
+    public boolean isCachingAllowed() {
+        return cachingAllowed;
+    }
+
+    /**
+     * @param cachingAllowed
+     *         caches the resources. When disabled, every lookup reads the
+     *         resource sets
+     */
+    public ResourceCache setCachingAllowed(boolean cachingAllowed) {
+        this.cachingAllowed = cachingAllowed;
+        return this;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize
+     *         maximum cache size, in kilobytes. The least recently used
+     *         resources are evicted beyond it
+     */
+    public ResourceCache setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    public int getObjectMaxSize() {
+        return objectMaxSize;
+    }
+
+    /**
+     * @param objectMaxSize
+     *         maximum size of a cached content, in kilobytes. Larger
+     *         resources only have their metadata cached
+     */
+    public ResourceCache setObjectMaxSize(int objectMaxSize) {
+        this.objectMaxSize = objectMaxSize;
+        return this;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @param ttl
+     *         milliseconds a cached resource is used before being checked
+     *         against the file system again
+     */
+    public ResourceCache setTtl(long ttl) {
+        this.ttl = ttl;
+        return this;
+    }
+
+    public boolean isPreload() {
+        return preload;
+    }
+
+    /**
+     * @param preload
+     *         Reads the static resources of the document base into the cache
+     *         in background at startup, up to the max size. WEB-INF and
+     *         META-INF are skipped
+     */
+    public ResourceCache setPreload(boolean preload) {
+        this.preload = preload;
+        return this;
+    }
+
+    /**
+     * Creates the resources root of a context
+     *
+     * @param context
+     *         application context
+     * @return
+     */
+    public MappedWarRoot createRoot(Context context) {
+
+        if (maxSize <= 0 || objectMaxSize <= 0 || objectMaxSize > maxSize || ttl < 0) {
+            throw new IllegalStateException("Invalid resource cache max size " + maxSize + ", object max size " +
+                    objectMaxSize + " or TTL " + ttl);
+        }
+
+        if (!cachingAllowed) {
+            MappedWarRoot root = new MappedWarRoot(context);
+            root.setCachingAllowed(false);
+            return root;
+        }
+
+        return new CachingResourceRoot(context, maxSize * 1024, objectMaxSize * 1024, ttl, preload);
+    }
+}
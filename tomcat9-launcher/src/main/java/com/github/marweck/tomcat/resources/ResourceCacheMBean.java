@@ -0,0 +1,29 @@
+package com.github.marweck.tomcat.resources;
+
+/**
+ * JMX view of the static resource cache of a web application. Sizes are in
+ * bytes.
+ *
+ * @author Marcio Carvalho
+ */
+public interface ResourceCacheMBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    double getHitRatio();
+
+    long getSize();
+
+    long getMaxSize();
+
+    int getEntryCount();
+
+    /**
+     * Drops every cached resource
+     */
+    void clear();
+}
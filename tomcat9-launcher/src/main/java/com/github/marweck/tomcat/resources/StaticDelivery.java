@@ -0,0 +1,131 @@
+package com.github.marweck.tomcat.resources;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Connector;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import java.io.File;
+
+/**
+ * Static file delivery through sendfile.
+ * <p>
+ * The connectors are configured to use sendfile and the default servlet hands
+ * the static files larger than the sendfile size over to the connector, which
+ * writes them with {@code FileChannel.transferTo} on NIO, so the kernel copies
+ * them instead of the request threads.
+ * <p>
+ * Only files of a directory document base can be sent this way: entries of a
+ * packed WAR have no file to transfer from. Responses compressed on the fly,
+ * wrapped by a filter or sent over TLS with JSSE are written as usual.
+ *
+ * @author Marcio Carvalho
+ */
+public class StaticDelivery {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(StaticDelivery.class);
+
+    /**
+     * Default servlet name, as registered by Tomcat.initWebappDefaults
+     */
+    private static final String DEFAULT_SERVLET = "default";
+
+    /**
+     * Determines whether the connectors use sendfile
+     */
+    private boolean useSendfile = true;
+
+    /**
+     * Smallest file sent with sendfile, in kilobytes
+     */
+    private int sendfileSize = 48;
+
+    public boolean isUseSendfile() {
+        return useSendfile;
+    }
+
+    /**
+     * @param useSendfile
+     *         Lets the connectors send the static files with sendfile. When
+     *         disabled, files are always copied through the response buffer
+     */
+    public StaticDelivery setUseSendfile(boolean useSendfile) {
+        this.useSendfile = useSendfile;
+        return this;
+    }
+
+    public int getSendfileSize() {
+        return sendfileSize;
+    }
+
+    /**
+     * @param sendfileSize
+     *         Smallest file sent with sendfile, in kilobytes. Smaller files
+     *         are written from memory, where the resource cache keeps them
+     */
+    public StaticDelivery setSendfileSize(int sendfileSize) {
+        if (sendfileSize <= 0) {
+            throw new IllegalStateException("Invalid sendfile size: " + sendfileSize);
+        }
+
+        this.sendfileSize = sendfileSize;
+        return this;
+    }
+
+    /**
+     * Enables sendfile on a connector
+     *
+     * @param connector
+     */
+    public void configure(Connector connector) {
+        if (!connector.setProperty("useSendfile", Boolean.toString(useSendfile))) {
+            log.warn("Sendfile not supported by " + connector.getProtocolHandlerClassName());
+        }
+    }
+
+    /**
+     * Sets the sendfile size of the default servlet
+     *
+     * @param context
+     *         application context
+     * @param documentBase
+     *         application document base
+     */
+    public void configure(Context context, File documentBase) {
+
+        if (useSendfile && documentBase.isFile()) {
+            log.info("Document base " + documentBase + " is a packed WAR, its files will not be sent with sendfile");
+        }
+
+        context.addLifecycleListener(new SendfileListener());
+    }
+
+    /**
+     * Sets the sendfile size on the default servlet once the web.xml has been
+     * processed, so an overridden default servlet is covered as well
+     */
+    private class SendfileListener implements LifecycleListener {
+
+        @Override
+        public void lifecycleEvent(LifecycleEvent event) {
+
+            if (!Lifecycle.CONFIGURE_START_EVENT.equals(event.getType())) {
+                return;
+            }
+
+            Container child = ((Context) event.getLifecycle()).findChild(DEFAULT_SERVLET);
+
+            if (child instanceof Wrapper && ((Wrapper) child).findInitParameter("sendfileSize") == null) {
+                ((Wrapper) child).addInitParameter("sendfileSize", Integer.toString(useSendfile ? sendfileSize : 0));
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.github.marweck.tomcat.session;
+
+import org.apache.catalina.util.CustomObjectInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact session codec.
+ * <p>
+ * Strings, primitive wrappers, dates and byte arrays are written as a type tag
+ * followed by their binary form, with variable length integers, skipping Java
+ * serialization. Any other value is Java serialized. Values larger than the
+ * compression threshold are deflated.
+ *
+ * @author Marcio Carvalho
+ */
+public class CompactSessionCodec implements SessionCodec {
+
+    private static final int NULL = 0;
+
+    private static final int STRING = 1;
+
+    private static final int INTEGER = 2;
+
+    private static final int LONG = 3;
+
+    private static final int TRUE = 4;
+
+    private static final int FALSE = 5;
+
+    private static final int DOUBLE = 6;
+
+    private static final int FLOAT = 7;
+
+    private static final int SHORT = 8;
+
+    private static final int BYTE = 9;
+
+    private static final int CHARACTER = 10;
+
+    private static final int BYTES = 11;
+
+    private static final int DATE = 12;
+
+    private static final int SERIALIZED = 13;
+
+    /**
+     * Tag flag of deflated values
+     */
+    private static final int COMPRESSED = 0x80;
+
+    /**
+     * Values whose encoded size reaches this threshold, in bytes, are deflated
+     */
+    private int compressionThreshold = 8192;
+
+    /**
+     * Deflate level
+     */
+    private int level = Deflater.BEST_SPEED;
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @param compressionThreshold
+     *         Values whose encoded size reaches this threshold, in bytes, are
+     *         deflated. 0 disables compression
+     */
+    public CompactSessionCodec setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @param level
+     *         deflate level, from 1 to 9
+     */
+    public CompactSessionCodec setLevel(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid deflate level: " + level);
+        }
+
+        this.level = level;
+        return this;
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        int tag = write(value, out);
+        out.flush();
+
+        byte[] payload = bytes.toByteArray();
+
+        if (compressionThreshold > 0 && payload.length >= compressionThreshold) {
+            byte[] compressed = deflate(payload);
+
+            if (compressed != null) {
+                ByteArrayOutputStream result = new ByteArrayOutputStream(compressed.length + 6);
+                result.write(tag | COMPRESSED);
+                writeVarLong(result, payload.length);
+                result.write(compressed);
+                return result.toByteArray();
+            }
+        }
+
+        byte[] result = new byte[payload.length + 1];
+        result[0] = (byte) tag;
+        System.arraycopy(payload, 0, result, 1, payload.length);
+        return result;
+    }
+
+    @Override
+    public Object decode(byte[] data, ClassLoader classLoader) throws IOException {
+
+        if (data.length == 0) {
+            throw new IOException("Empty session value");
+        }
+
+        int tag = data[0] & 0xff;
+        InputStream payload = new ByteArrayInputStream(data, 1, data.length - 1);
+
+        if ((tag & COMPRESSED) != 0) {
+            tag &= ~COMPRESSED;
+            payload = new ByteArrayInputStream(inflate(payload, data));
+        }
+
+        return read(tag, new DataInputStream(payload), classLoader);
+    }
+
+    /**
+     * Writes the value without its tag
+     *
+     * @param value
+     * @param out
+     * @return value tag
+     * @throws IOException
+     */
+    private int write(Object value, DataOutputStream out) throws IOException {
+
+        if (value == null) {
+            return NULL;
+        }
+
+        Class<?> type = value.getClass();
+
+        if (type == String.class) {
+            byte[] chars = ((String) value).getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, chars.length);
+            out.write(chars);
+            return STRING;
+        } else if (type == Integer.class) {
+            writeVarLong(out, zigZag((Integer) value));
+            return INTEGER;
+        } else if (type == Long.class) {
+            writeVarLong(out, zigZag((Long) value));
+            return LONG;
+        } else if (type == Boolean.class) {
+            return (Boolean) value ? TRUE : FALSE;
+        } else if (type == Double.class) {
+            out.writeDouble((Double) value);
+            return DOUBLE;
+        } else if (type == Float.class) {
+            out.writeFloat((Float) value);
+            return FLOAT;
+        } else if (type == Short.class) {
+            out.writeShort((Short) value);
+            return SHORT;
+        } else if (type == Byte.class) {
+            out.writeByte((Byte) value);
+            return BYTE;
+        } else if (type == Character.class) {
+            out.writeChar((Character) value);
+            return CHARACTER;
+        } else if (type == byte[].class) {
+            writeVarLong(out, ((byte[]) value).length);
+            out.write((byte[]) value);
+            return BYTES;
+        } else if (type == Date.class) {
+            writeVarLong(out, zigZag(((Date) value).getTime()));
+            return DATE;
+        }
+
+        ObjectOutputStream serializer = new ObjectOutputStream(out);
+        serializer.writeObject(value);
+        serializer.flush();
+        return SERIALIZED;
+    }
+
+    private Object read(int tag, DataInputStream in, ClassLoader classLoader) throws IOException {
+
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case INTEGER:
+                return (int) unZigZag(readVarLong(in));
+            case LONG:
+                return unZigZag(readVarLong(in));
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case CHARACTER:
+                return in.readChar();
+            case BYTES:
+                return readBytes(in);
+            case DATE:
+                return new Date(unZigZag(readVarLong(in)));
+            case SERIALIZED:
+                try (ObjectInputStream deserializer = new CustomObjectInputStream(in, classLoader)) {
+                    return deserializer.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unable to resolve session value class", e);
+                }
+            default:
+                throw new IOException("Unknown session value tag: " + tag);
+        }
+    }
+
+    /**
+     * @param payload
+     * @return deflated payload, or null when not smaller
+     */
+    private byte[] deflate(byte[] payload) {
+
+        Deflater deflater = new Deflater(level);
+
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+
+            byte[] buffer = new byte[payload.length];
+            int length = 0;
+
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+
+            if (!deflater.finished()) {
+                return null;
+            }
+
+            byte[] compressed = new byte[length];
+            System.arraycopy(buffer, 0, compressed, 0, length);
+            return compressed;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] inflate(InputStream in, byte[] data) throws IOException {
+
+        long length = readVarLong(in);
+        int offset = data.length - in.available();
+
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid session value length: " + length);
+        }
+
+        Inflater inflater = new Inflater();
+
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+
+            byte[] payload = new byte[(int) length];
+            int read = 0;
+
+            while (read < payload.length && !inflater.finished()) {
+                int inflated = inflater.inflate(payload, read, payload.length - read);
+
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+
+                read += inflated;
+            }
+
+            if (read != payload.length) {
+                throw new IOException("Truncated session value");
+            }
+
+            return payload;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted session value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+
+        long length = readVarLong(in);
+
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid session value length: " + length);
+        }
+
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+
+            if (b == -1) {
+                throw new IOException("Truncated session value");
+            }
+
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed variable length integer");
+    }
+}
@@ -1,5 +1,7 @@
 package com.github.marweck.tomcat.session;
 
+import org.apache.catalina.Context;
+
 /**
  * NoOp SessionStore
  * <p>
@@ -7,4 +9,30 @@ package com.github.marweck.tomcat.session;
  */
 public class DefaultSessionStore implements SessionStore {
 
+    /**
+     * Determines whether sessions are expired from an expiry queue
+     */
+    private boolean expiryQueue;
+
+    public boolean isExpiryQueue() {
+        return expiryQueue;
+    }
+
+    /**
+     * @param expiryQueue
+     *         Expires sessions from a queue of one second buckets, checking
+     *         only the sessions due instead of scanning all of them on each
+     *         background processing run
+     */
+    public DefaultSessionStore setExpiryQueue(boolean expiryQueue) {
+        this.expiryQueue = expiryQueue;
+        return this;
+    }
+
+    @Override
+    public void configureSessionStore(Context ctx) {
+        if (expiryQueue) {
+            ctx.setManager(new ExpiryQueueManager());
+        }
+    }
 }
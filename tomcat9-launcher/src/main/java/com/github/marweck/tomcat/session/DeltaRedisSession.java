@@ -0,0 +1,341 @@
+package com.github.marweck.tomcat.session;
+
+import io.netty.buffer.ByteBuf;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RBatch;
+import org.redisson.api.RMap;
+import org.redisson.api.RMapAsync;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.client.protocol.Encoder;
+import org.redisson.codec.CompositeCodec;
+import org.redisson.tomcat.AttributeRemoveMessage;
+import org.redisson.tomcat.RedissonSession;
+import org.redisson.tomcat.RedissonSessionManager;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redisson session writing back only the changed attributes.
+ * <p>
+ * The digest of each serialized attribute is kept from the last load or save.
+ * At the end of the request the attributes whose digest changed, including
+ * mutable values changed in place, are written with the session metadata and
+ * the removed attributes are deleted, in one pipelined batch. In memory read
+ * mode the metadata is always published with the changed attributes, as
+ * Redisson does, so the other nodes keep the access times. Immutable values
+ * still referencing the same instance are not serialized again.
+ *
+ * @author Marcio Carvalho
+ */
+class DeltaRedisSession extends RedissonSession {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String CREATION_TIME_ATTR = "session:creationTime";
+
+    private static final String LAST_ACCESSED_TIME_ATTR = "session:lastAccessedTime";
+
+    private static final String THIS_ACCESSED_TIME_ATTR = "session:thisAccessedTime";
+
+    private static final String MAX_INACTIVE_INTERVAL_ATTR = "session:maxInactiveInterval";
+
+    private static final String IS_VALID_ATTR = "session:isValid";
+
+    private static final String IS_NEW_ATTR = "session:isNew";
+
+    private static final String IS_EXPIRATION_LOCKED_ATTR = "session:isExpirationLocked";
+
+    /**
+     * Private RedissonSession state the delta save must keep in step, null
+     * when not found
+     */
+    private static final Field REMOVED_ATTRIBUTES = field("removedAttributes");
+
+    private static final Field EXPIRATION_LOCKED = field("isExpirationLocked");
+
+    /**
+     * Seconds the Redis entry outlives the session, as Redisson does
+     */
+    private static final int EXPIRATION_MARGIN = 60;
+
+    private final transient RedissonSessionManager manager;
+
+    private final transient boolean memoryReadMode;
+
+    private final transient boolean broadcastSessionEvents;
+
+    /**
+     * Attribute digests as stored in Redis
+     */
+    private final transient Map<String, Digest> stored = new ConcurrentHashMap<>();
+
+    DeltaRedisSession(RedissonSessionManager manager, RedissonSessionManager.ReadMode readMode,
+            RedissonSessionManager.UpdateMode updateMode, boolean broadcastSessionEvents) {
+        super(manager, readMode, updateMode, broadcastSessionEvents);
+        this.manager = manager;
+        this.memoryReadMode = readMode == RedissonSessionManager.ReadMode.MEMORY;
+        this.broadcastSessionEvents = broadcastSessionEvents;
+    }
+
+    private static Field field(String name) {
+        try {
+            Field field = RedissonSession.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Loads the session from Redis, or the metadata and changed attributes
+     * published by another node, whose other attributes are unchanged
+     */
+    @Override
+    public void load(Map<String, Object> attrs) {
+
+        super.load(attrs);
+
+        Encoder encoder = getEncoder();
+
+        for (Map.Entry<String, Object> attribute : attrs.entrySet()) {
+            if (!RedissonSession.ATTRS.contains(attribute.getKey())) {
+                stored.put(attribute.getKey(), digest(encoder, attribute.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Attribute set by another node, already stored in Redis
+     */
+    @Override
+    public void superSetAttribute(String name, Object value, boolean notify) {
+
+        super.superSetAttribute(name, value, notify);
+        stored.put(name, digest(getEncoder(), value));
+    }
+
+    /**
+     * Attribute removed by another node, already removed from Redis
+     */
+    @Override
+    public void superRemoveAttributeInternal(String name, boolean notify) {
+
+        super.superRemoveAttributeInternal(name, notify);
+        stored.remove(name);
+    }
+
+    @Override
+    public void save() {
+
+        Encoder encoder = getEncoder();
+
+        Map<String, byte[]> changed = new HashMap<>();
+        Map<String, Object> changedValues = new HashMap<>();
+        Map<String, Digest> digests = new HashMap<>();
+
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            Digest previous = stored.get(attribute.getKey());
+
+            if (previous != null && previous.isSameImmutable(attribute.getValue())) {
+                continue;
+            }
+
+            byte[] data = encode(encoder, attribute.getValue());
+            Digest digest = new Digest(attribute.getValue(), data);
+
+            if (!digest.equals(previous)) {
+                changed.put(attribute.getKey(), data);
+                changedValues.put(attribute.getKey(), attribute.getValue());
+                digests.put(attribute.getKey(), digest);
+            }
+        }
+
+        Set<String> removed = new HashSet<>(stored.keySet());
+        removed.removeAll(attributes.keySet());
+
+        boolean expirationLocked = isExpirationLocked();
+
+        // metadata as Redisson saves it, so the other nodes keep the access times
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(CREATION_TIME_ATTR, creationTime);
+        metadata.put(LAST_ACCESSED_TIME_ATTR, lastAccessedTime);
+        metadata.put(THIS_ACCESSED_TIME_ATTR, thisAccessedTime);
+        metadata.put(MAX_INACTIVE_INTERVAL_ATTR, maxInactiveInterval);
+        metadata.put(IS_VALID_ATTR, isValid);
+        metadata.put(IS_NEW_ATTR, isNew);
+
+        if (broadcastSessionEvents) {
+            metadata.put(IS_EXPIRATION_LOCKED_ATTR, expirationLocked);
+        }
+
+        Map<String, byte[]> entries = new HashMap<>(changed);
+
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            entries.put(entry.getKey(), encode(encoder, entry.getValue()));
+        }
+
+        RMap<String, Object> map = manager.getMap(getId());
+        RBatch batch = manager.getRedisson().createBatch(BatchOptions.defaults().skipResult());
+
+        RMapAsync<String, byte[]> rawMap = batch.getMap(map.getName(),
+                new CompositeCodec(StringCodec.INSTANCE, ByteArrayCodec.INSTANCE, ByteArrayCodec.INSTANCE));
+        rawMap.putAllAsync(entries);
+
+        if (!removed.isEmpty()) {
+            rawMap.fastRemoveAsync(removed.toArray(new String[0]));
+        }
+
+        if (maxInactiveInterval >= 0 && !expirationLocked) {
+            rawMap.expireAsync(maxInactiveInterval + EXPIRATION_MARGIN, TimeUnit.SECONDS);
+        }
+
+        if (memoryReadMode) {
+            String channel = manager.getTopic().getChannelNames().get(0);
+
+            Map<String, Object> message = new HashMap<>(metadata);
+            message.putAll(changedValues);
+
+            batch.getTopic(channel).publishAsync(createPutAllMessage(message));
+
+            if (!removed.isEmpty()) {
+                batch.getTopic(channel).publishAsync(new AttributeRemoveMessage(manager.getNodeId(), getId(), removed));
+            }
+        }
+
+        batch.execute();
+
+        stored.putAll(digests);
+        stored.keySet().removeAll(removed);
+
+        clearRemovedAttributes();
+    }
+
+    /**
+     * @return whether Redisson locked the Redis entry expiration, while
+     * broadcasting the session events
+     */
+    private boolean isExpirationLocked() {
+        try {
+            return EXPIRATION_LOCKED != null && EXPIRATION_LOCKED.getBoolean(this);
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Clears the attributes removed during the request, tracked by Redisson
+     * for its own save and already handled by the delta
+     */
+    private void clearRemovedAttributes() {
+        try {
+            Object removed = REMOVED_ATTRIBUTES == null ? null : REMOVED_ATTRIBUTES.get(this);
+
+            if (removed instanceof Set) {
+                ((Set<?>) removed).clear();
+            }
+        } catch (IllegalAccessException e) {
+            // nothing tracked
+        }
+    }
+
+    /**
+     * @return serialized size of the attributes as stored in Redis, from the
+     * last load or save
+     */
+    long getStoredSize() {
+        long size = 0;
+
+        for (Digest digest : stored.values()) {
+            size += digest.size;
+        }
+
+        return size;
+    }
+
+    private Encoder getEncoder() {
+        Codec codec = manager.getMap(getId()).getCodec();
+        return codec.getMapValueEncoder();
+    }
+
+    private static Digest digest(Encoder encoder, Object value) {
+        return new Digest(value, encode(encoder, value));
+    }
+
+    private static byte[] encode(Encoder encoder, Object value) {
+        ByteBuf buf = null;
+
+        try {
+            buf = encoder.encode(value);
+            byte[] data = new byte[buf.readableBytes()];
+            buf.getBytes(buf.readerIndex(), data);
+            return data;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to serialize session attribute", e);
+        } finally {
+            if (buf != null) {
+                buf.release();
+            }
+        }
+    }
+
+    /**
+     * Digest of a serialized attribute value. Only used for change detection
+     */
+    private static class Digest {
+
+        private final byte[] hash;
+
+        /**
+         * Serialized value size, in bytes
+         */
+        private final int size;
+
+        /**
+         * Immutable value the digest was computed from, or null
+         */
+        private final Object immutable;
+
+        private Digest(Object value, byte[] data) {
+            try {
+                this.hash = MessageDigest.getInstance("MD5").digest(data);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+
+            this.size = data.length;
+            this.immutable = isImmutable(value) ? value : null;
+        }
+
+        private boolean isSameImmutable(Object value) {
+            return immutable != null && immutable == value;
+        }
+
+        private static boolean isImmutable(Object value) {
+            return value instanceof String || value instanceof Number && value.getClass().getName().startsWith("java.lang.") ||
+                    value instanceof Boolean || value instanceof Character || value instanceof Enum;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Digest && Arrays.equals(hash, ((Digest) other).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(hash);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.github.marweck.tomcat.session;
+
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.session.StandardSession;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Standard manager expiring sessions from a queue of one second buckets.
+ * <p>
+ * Each session is queued in the bucket of the time it would expire if not
+ * accessed again. The background processing only checks the sessions of the
+ * buckets already due, expiring them or queuing them again from their last
+ * access, instead of checking every session. A session is thus checked about
+ * once per timeout rather than on every background processing run.
+ *
+ * @author Marcio Carvalho
+ */
+class ExpiryQueueManager extends StandardManager {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(ExpiryQueueManager.class);
+
+    /**
+     * Session ids by expiration second
+     */
+    private final TreeMap<Long, Set<String>> buckets = new TreeMap<>();
+
+    /**
+     * Expiration second of each queued session
+     */
+    private final Map<String, Long> queued = new HashMap<>();
+
+    ExpiryQueueManager() {
+        setProcessExpiresFrequency(1);
+    }
+
+    @Override
+    public String getName() {
+        return "ExpiryQueueManager";
+    }
+
+    @Override
+    protected StandardSession getNewSession() {
+        return new ExpiryQueueSession(this);
+    }
+
+    @Override
+    public void add(Session session) {
+        super.add(session);
+        enqueue(session, System.currentTimeMillis());
+    }
+
+    @Override
+    public void remove(Session session, boolean update) {
+        super.remove(session, update);
+
+        synchronized (buckets) {
+            queued.remove(session.getIdInternal());
+        }
+    }
+
+    /**
+     * Queues the sessions restored from the previous run
+     */
+    @Override
+    public void load() throws ClassNotFoundException, IOException {
+        super.load();
+
+        long now = System.currentTimeMillis();
+
+        for (Session session : findSessions()) {
+            enqueue(session, now);
+        }
+    }
+
+    @Override
+    public void processExpires() {
+
+        long now = System.currentTimeMillis();
+        long second = now / 1000;
+        int checked = 0;
+        int expired = 0;
+
+        while (true) {
+            Map.Entry<Long, Set<String>> bucket;
+
+            synchronized (buckets) {
+                if (buckets.isEmpty() || buckets.firstKey() > second) {
+                    break;
+                }
+
+                bucket = buckets.pollFirstEntry();
+                bucket.getValue().removeIf(id -> !bucket.getKey().equals(queued.get(id)));
+            }
+
+            for (String id : bucket.getValue()) {
+                Session session = sessions.get(id);
+                checked++;
+
+                if (session == null) {
+                    synchronized (buckets) {
+                        queued.remove(id);
+                    }
+                } else if (!session.isValid()) {
+                    expired++;
+                } else {
+                    enqueue(session, now);
+                }
+            }
+        }
+
+        long timeEnd = System.currentTimeMillis();
+        processingTime += timeEnd - now;
+
+        if (log.isDebugEnabled()) {
+            log.debug("Expiry queue checked " + checked + " sessions, expired " + expired + " in " +
+                    (timeEnd - now) + "ms");
+        }
+    }
+
+    /**
+     * Queues a session in the bucket of its expiration time, no earlier than
+     * the next second. Sessions never expiring are not queued.
+     *
+     * @param session
+     * @param now
+     *         current time
+     */
+    void enqueue(Session session, long now) {
+
+        String id = session.getIdInternal();
+
+        if (id == null) {
+            return;
+        }
+
+        synchronized (buckets) {
+            if (session.getMaxInactiveInterval() <= 0) {
+                queued.remove(id);
+                return;
+            }
+
+            long deadline = now + session.getMaxInactiveInterval() * 1000L - session.getIdleTimeInternal();
+            long second = Math.max(deadline / 1000 + 1, now / 1000 + 1);
+
+            queued.put(id, second);
+            buckets.computeIfAbsent(second, key -> new HashSet<>()).add(id);
+        }
+    }
+
+    /**
+     * Session queued again when its timeout changes
+     */
+    private static class ExpiryQueueSession extends StandardSession {
+
+        private static final long serialVersionUID = 1L;
+
+        private ExpiryQueueSession(Manager manager) {
+            super(manager);
+        }
+
+        @Override
+        public void setMaxInactiveInterval(int interval) {
+            super.setMaxInactiveInterval(interval);
+
+            if (manager instanceof ExpiryQueueManager) {
+                ((ExpiryQueueManager) manager).enqueue(this, System.currentTimeMillis());
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.marweck.tomcat.session;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.session.PersistentManager;
+
+import java.io.File;
+
+/**
+ * Local session store persisting the sessions to a memory-mapped file, so
+ * they survive restarts.
+ * <p>
+ * Sessions are backed up to the file once idle for the configured time and on
+ * shutdown. At startup only the file index is rebuilt, each session being
+ * deserialized by the first request using it, so restarts stay fast whatever
+ * the number of stored sessions.
+ *
+ * @author Marcio Carvalho
+ */
+public class MappedFileSessionStore implements SessionStore {
+
+    /**
+     * Directory of the session files, one per context
+     */
+    private final File directory;
+
+    /**
+     * Seconds a session stays idle before being backed up
+     */
+    private int maxIdleBackup = 10;
+
+    /**
+     * Seconds a session stays idle on the heap before being swapped out.
+     * Never when -1
+     */
+    private int maxIdleSwap = -1;
+
+    /**
+     * Maximum number of sessions on the heap. Unlimited when -1
+     */
+    private int maxActiveSessions = -1;
+
+    /**
+     * Attribute values codec. Java serialization when null
+     */
+    private SessionCodec codec;
+
+    /**
+     * Keeps the session files in a temp dir named after the working dir, so
+     * the same application finds its sessions back after a restart
+     */
+    public MappedFileSessionStore() {
+        this(new File(System.getProperty("java.io.tmpdir"), "tomcat-sessions-" +
+                Integer.toHexString(new File("").getAbsolutePath().hashCode())));
+    }
+
+    /**
+     * @param directory
+     *         directory of the session files, created when missing
+     */
+    public MappedFileSessionStore(File directory) {
+        if (directory == null) {
+            throw new IllegalStateException("Session directory is null");
+        }
+
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getMaxIdleBackup() {
+        return maxIdleBackup;
+    }
+
+    /**
+     * @param maxIdleBackup
+     *         Seconds a session stays idle before being backed up to the
+     *         file. Sessions unchanged since their last backup are not written
+     *         again. Only backed up on shutdown when -1
+     */
+    public MappedFileSessionStore setMaxIdleBackup(int maxIdleBackup) {
+        this.maxIdleBackup = maxIdleBackup;
+        return this;
+    }
+
+    public int getMaxIdleSwap() {
+        return maxIdleSwap;
+    }
+
+    /**
+     * @param maxIdleSwap
+     *         Seconds a session stays idle on the heap before being swapped
+     *         out to the file. Never when -1
+     */
+    public MappedFileSessionStore setMaxIdleSwap(int maxIdleSwap) {
+        this.maxIdleSwap = maxIdleSwap;
+        return this;
+    }
+
+    public int getMaxActiveSessions() {
+        return maxActiveSessions;
+    }
+
+    /**
+     * @param maxActiveSessions
+     *         Maximum number of sessions on the heap. Once reached, new
+     *         sessions are rejected with a TooManyActiveSessionsException,
+     *         usually an error response, until the next background processing
+     *         run swaps the least recently used ones out. Unlimited when -1
+     */
+    public MappedFileSessionStore setMaxActiveSessions(int maxActiveSessions) {
+        this.maxActiveSessions = maxActiveSessions;
+        return this;
+    }
+
+    public SessionCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param codec
+     *         Attribute values codec, such as {@link CompactSessionCodec}.
+     *         Java serialization when null. Sessions saved with another codec
+     *         are not loaded
+     */
+    public MappedFileSessionStore setCodec(SessionCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    @Override
+    public void configureSessionStore(Context ctx) {
+
+        String name = ctx.getName() == null || ctx.getName().isEmpty() ? "ROOT" :
+                ctx.getName().replaceFirst("^/", "").replace('/', '#');
+
+        MappedFileStore store = new MappedFileStore(new File(directory, name + ".sessions"));
+        store.setCodec(codec);
+
+        PersistentManager manager = new PersistentManager();
+        manager.setStore(store);
+        manager.setMaxIdleBackup(maxIdleBackup);
+        manager.setMaxIdleSwap(maxIdleSwap);
+        manager.setMaxActiveSessions(maxActiveSessions);
+        manager.setSaveOnRestart(true);
+        manager.setProcessExpiresFrequency(1);
+
+        ctx.setManager(manager);
+    }
+}
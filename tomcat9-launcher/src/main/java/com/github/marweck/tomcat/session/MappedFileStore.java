@@ -0,0 +1,499 @@
+package com.github.marweck.tomcat.session;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Session store appending the serialized sessions to a memory-mapped file.
+ * <p>
+ * Each record holds a session, or the removal of a session, with its id,
+ * last access time and timeout, and a CRC. At startup the file is scanned once
+ * to rebuild the in-memory index, without deserializing any session, and a
+ * torn record left by a crash ends the log. Records superseded by a later
+ * save or removal are dropped by a compaction, run on background processing
+ * once they outweigh the live ones.
+ *
+ * @author Marcio Carvalho
+ */
+class MappedFileStore extends SerializedStoreBase {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(MappedFileStore.class);
+
+    private static final byte PUT = 1;
+
+    private static final byte REMOVE = 2;
+
+    /**
+     * Record length prefix plus type, id length, last access time, timeout,
+     * data length and CRC
+     */
+    private static final int RECORD_OVERHEAD = 4 + 1 + 2 + 8 + 4 + 4 + 4;
+
+    /**
+     * Initial mapped size
+     */
+    private static final int INITIAL_SIZE = 1024 * 1024;
+
+    /**
+     * Largest file a single mapping covers
+     */
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Smallest amount of superseded records worth a compaction, in bytes
+     */
+    private static final long MIN_COMPACTION = 4 * 1024 * 1024;
+
+    /**
+     * Session file
+     */
+    private final File file;
+
+    /**
+     * Live sessions by id
+     */
+    private final Map<String, Entry> index = new HashMap<>();
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * End of the last record
+     */
+    private int position;
+
+    /**
+     * Bytes taken by the live records
+     */
+    private long liveBytes;
+
+    /**
+     * Bytes taken by the superseded records
+     */
+    private long deadBytes;
+
+    /**
+     * @param file
+     *         session file, created when missing
+     */
+    MappedFileStore(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public String getStoreName() {
+        return "mappedFileStore";
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized String[] keys() {
+        return index.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Only the sessions whose timeout elapsed since their last access
+     *
+     * @return
+     */
+    @Override
+    public synchronized String[] expiredKeys() {
+
+        long now = System.currentTimeMillis();
+        List<String> expired = new ArrayList<>();
+
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+            if (entry.getValue().isExpired(now)) {
+                expired.add(entry.getKey());
+            }
+        }
+
+        return expired.toArray(new String[0]);
+    }
+
+    @Override
+    protected synchronized byte[] read(String id) {
+
+        Entry entry = index.get(id);
+
+        if (entry == null) {
+            return null;
+        }
+
+        byte[] data = new byte[entry.dataLength];
+        ByteBuffer source = buffer.duplicate();
+        source.position(entry.dataOffset());
+        source.get(data);
+        return data;
+    }
+
+    /**
+     * Skips the sessions unchanged since their last save, as the periodic
+     * backups save every idle session again
+     */
+    @Override
+    protected synchronized void write(String id, byte[] data, long lastAccessed, int maxInactiveInterval)
+            throws IOException {
+
+        Entry previous = index.get(id);
+
+        if (previous != null && previous.lastAccessed == lastAccessed &&
+                previous.maxInactiveInterval == maxInactiveInterval && previous.dataLength == data.length) {
+            return;
+        }
+
+        Entry entry = append(PUT, id, lastAccessed, maxInactiveInterval, data);
+        index.put(id, entry);
+        liveBytes += entry.length;
+
+        if (previous != null) {
+            liveBytes -= previous.length;
+            deadBytes += previous.length;
+        }
+    }
+
+    @Override
+    public synchronized void remove(String id) throws IOException {
+
+        Entry previous = index.remove(id);
+
+        if (previous != null) {
+            Entry removal = append(REMOVE, id, 0, 0, new byte[0]);
+            liveBytes -= previous.length;
+            deadBytes += previous.length + removal.length;
+        }
+    }
+
+    @Override
+    public synchronized void clear() throws IOException {
+        index.clear();
+        liveBytes = 0;
+
+        if (buffer != null) {
+            compact();
+        }
+    }
+
+    /**
+     * Expires the stored sessions, then compacts the file when the superseded
+     * records outweigh the live ones and flushes it to disk
+     */
+    @Override
+    public void processExpires() {
+
+        super.processExpires();
+
+        synchronized (this) {
+            if (buffer == null) {
+                return;
+            }
+
+            try {
+                if (deadBytes > MIN_COMPACTION && deadBytes > liveBytes) {
+                    compact();
+                } else {
+                    buffer.force();
+                }
+            } catch (IOException e) {
+                log.warn("Unable to compact the session file " + file, e);
+            }
+        }
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+
+        File parent = file.getAbsoluteFile().getParentFile();
+
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new LifecycleException("Unable to create the session dir " + parent);
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+
+            open(file);
+            recover();
+
+            log.info("Session file " + file + " indexed in " + (System.currentTimeMillis() - start) + "ms: " +
+                    index.size() + " sessions");
+        } catch (IOException e) {
+            throw new LifecycleException("Unable to open the session file " + file, e);
+        }
+
+        super.startInternal();
+    }
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+
+        super.stopInternal();
+
+        if (buffer != null) {
+            buffer.force();
+        }
+
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to close the session file " + file, e);
+        }
+
+        channel = null;
+        buffer = null;
+        index.clear();
+    }
+
+    private void open(File target) throws IOException {
+        channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(INITIAL_SIZE, Math.min(channel.size(), MAX_SIZE)));
+        position = 0;
+    }
+
+    /**
+     * Rebuilds the index from the records, up to the first torn or empty one
+     */
+    private void recover() {
+
+        index.clear();
+        liveBytes = 0;
+        deadBytes = 0;
+
+        while (position + RECORD_OVERHEAD <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+
+            if (length < RECORD_OVERHEAD - 4 || position + 4L + length > buffer.capacity() || !isIntact(position, length)) {
+                break;
+            }
+
+            byte type = buffer.get(position + 4);
+            int idLength = buffer.getShort(position + 5) & 0xffff;
+            byte[] id = new byte[idLength];
+            ByteBuffer source = buffer.duplicate();
+            source.position(position + 7);
+            source.get(id);
+
+            Entry entry = new Entry(position, 4 + length, idLength, buffer.getLong(position + 7 + idLength),
+                    buffer.getInt(position + 15 + idLength), buffer.getInt(position + 19 + idLength));
+
+            Entry previous = type == PUT ? index.put(new String(id, StandardCharsets.UTF_8), entry) :
+                    index.remove(new String(id, StandardCharsets.UTF_8));
+
+            if (type == PUT) {
+                liveBytes += entry.length;
+            } else {
+                deadBytes += entry.length;
+            }
+
+            if (previous != null) {
+                liveBytes -= previous.length;
+                deadBytes += previous.length;
+            }
+
+            position += entry.length;
+        }
+
+        if (position + 4 <= buffer.capacity() && buffer.getInt(position) != 0) {
+            log.warn("Session file " + file + " truncated at " + position + " after a torn record");
+
+            for (int i = position; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    private boolean isIntact(int offset, int length) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 4);
+        record.limit(offset + length);
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+
+        return (int) crc.getValue() == buffer.getInt(offset + length);
+    }
+
+    private Entry append(byte type, String id, long lastAccessed, int maxInactiveInterval, byte[] data)
+            throws IOException {
+
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_OVERHEAD + idBytes.length + data.length;
+
+        ensureCapacity((long) position + length);
+
+        ByteBuffer target = buffer.duplicate();
+        target.position(position);
+        target.putInt(length - 4)
+                .put(type)
+                .putShort((short) idBytes.length)
+                .put(idBytes)
+                .putLong(lastAccessed)
+                .putInt(maxInactiveInterval)
+                .putInt(data.length)
+                .put(data);
+
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + 4);
+        record.limit(target.position());
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        target.putInt((int) crc.getValue());
+
+        Entry entry = new Entry(position, length, idBytes.length, lastAccessed, maxInactiveInterval, data.length);
+        position += length;
+        return entry;
+    }
+
+    private void ensureCapacity(long required) throws IOException {
+
+        if (required <= buffer.capacity()) {
+            return;
+        }
+
+        if (required > MAX_SIZE) {
+            throw new IOException("Session file full: " + file);
+        }
+
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(MAX_SIZE, Math.max(required,
+                2L * buffer.capacity())));
+    }
+
+    /**
+     * Copies the live records to a new file, replacing the current one. The
+     * new mapping and index are only used once the new file is in place, and
+     * the current ones are kept on failure
+     *
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+
+        long start = System.currentTimeMillis();
+        long reclaimed = deadBytes;
+
+        File compacted = new File(file.getPath() + ".compact");
+        Map<String, Entry> moved = new HashMap<>();
+        int end = 0;
+
+        FileChannel targetChannel = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer target;
+
+        try {
+            target = targetChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(INITIAL_SIZE, Math.min(liveBytes, MAX_SIZE)));
+
+            for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                Entry previous = entry.getValue();
+
+                ByteBuffer record = buffer.duplicate();
+                record.position(previous.offset);
+                record.limit(previous.offset + previous.length);
+
+                ByteBuffer copy = target.duplicate();
+                copy.position(end);
+                copy.put(record);
+
+                moved.put(entry.getKey(), previous.moveTo(end));
+                end += previous.length;
+            }
+
+            target.force();
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            targetChannel.close();
+            Files.deleteIfExists(compacted.toPath());
+            throw e;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close the previous session file", e);
+        }
+
+        channel = targetChannel;
+        buffer = target;
+        position = end;
+        index.putAll(moved);
+        liveBytes = end;
+        deadBytes = 0;
+
+        log.info("Session file " + file + " compacted in " + (System.currentTimeMillis() - start) + "ms, " +
+                reclaimed + " bytes reclaimed");
+    }
+
+    /**
+     * Location and expiration data of a session record
+     */
+    private static class Entry {
+
+        private final int offset;
+
+        private final int length;
+
+        private final int idLength;
+
+        private final long lastAccessed;
+
+        private final int maxInactiveInterval;
+
+        private final int dataLength;
+
+        private Entry(int offset, int length, int idLength, long lastAccessed, int maxInactiveInterval,
+                int dataLength) {
+            this.offset = offset;
+            this.length = length;
+            this.idLength = idLength;
+            this.lastAccessed = lastAccessed;
+            this.maxInactiveInterval = maxInactiveInterval;
+            this.dataLength = dataLength;
+        }
+
+        private int dataOffset() {
+            return offset + RECORD_OVERHEAD - 4 + idLength;
+        }
+
+        private Entry moveTo(int offset) {
+            return new Entry(offset, length, idLength, lastAccessed, maxInactiveInterval, dataLength);
+        }
+
+        private boolean isExpired(long now) {
+            return maxInactiveInterval > 0 && now - lastAccessed >= maxInactiveInterval * 1000L;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.marweck.tomcat.session;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.session.PersistentManager;
+
+/**
+ * Local session store keeping the idle sessions serialized in direct memory.
+ * <p>
+ * Sessions are swapped out of the heap once idle for the configured time and
+ * swapped back in by the next request using them, so only the hot sessions
+ * live in the heap. Sessions do not survive a restart.
+ *
+ * @author Marcio Carvalho
+ */
+public class OffHeapSessionStore implements SessionStore {
+
+    /**
+     * Maximum direct memory used, in bytes
+     */
+    private long capacity = 256L * 1024 * 1024;
+
+    /**
+     * Allocation block size, in bytes
+     */
+    private int blockSize = 1024;
+
+    /**
+     * Seconds a session stays idle on the heap before being swapped out
+     */
+    private int maxIdleSwap = 60;
+
+    /**
+     * Maximum number of sessions on the heap. Unlimited when -1
+     */
+    private int maxActiveSessions = -1;
+
+    /**
+     * Attribute values codec. Java serialization when null
+     */
+    private SessionCodec codec;
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param capacity
+     *         Maximum direct memory used, in bytes. Sessions not fitting stay
+     *         on the heap
+     */
+    public OffHeapSessionStore setCapacity(long capacity) {
+        this.capacity = capacity;
+        return this;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @param blockSize
+     *         allocation block size, in bytes
+     */
+    public OffHeapSessionStore setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    public int getMaxIdleSwap() {
+        return maxIdleSwap;
+    }
+
+    /**
+     * @param maxIdleSwap
+     *         Seconds a session stays idle on the heap before being swapped
+     *         out. Idle sessions are checked on each background processing
+     *         run, every 10 seconds by default
+     */
+    public OffHeapSessionStore setMaxIdleSwap(int maxIdleSwap) {
+        this.maxIdleSwap = maxIdleSwap;
+        return this;
+    }
+
+    public int getMaxActiveSessions() {
+        return maxActiveSessions;
+    }
+
+    /**
+     * @param maxActiveSessions
+     *         Maximum number of sessions on the heap. Once reached, new
+     *         sessions are rejected with a TooManyActiveSessionsException,
+     *         usually an error response, until the next background processing
+     *         run swaps the least recently used ones out. Unlimited when -1
+     */
+    public OffHeapSessionStore setMaxActiveSessions(int maxActiveSessions) {
+        this.maxActiveSessions = maxActiveSessions;
+        return this;
+    }
+
+    public SessionCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param codec
+     *         Attribute values codec, such as {@link CompactSessionCodec}.
+     *         Java serialization when null
+     */
+    public OffHeapSessionStore setCodec(SessionCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    @Override
+    public void configureSessionStore(Context ctx) {
+
+        OffHeapStore store = new OffHeapStore(capacity, blockSize);
+        store.setCodec(codec);
+
+        PersistentManager manager = new PersistentManager();
+        manager.setStore(store);
+        manager.setMaxIdleSwap(maxIdleSwap);
+        manager.setMaxActiveSessions(maxActiveSessions);
+        manager.setSaveOnRestart(false);
+        manager.setProcessExpiresFrequency(1);
+
+        ctx.setManager(manager);
+    }
+}
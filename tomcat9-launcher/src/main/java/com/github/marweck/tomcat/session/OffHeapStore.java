@@ -0,0 +1,331 @@
+package com.github.marweck.tomcat.session;
+
+import org.apache.catalina.LifecycleException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Session store keeping the serialized sessions in direct memory.
+ * <p>
+ * Direct buffers are allocated in chunks, split into fixed size blocks. A
+ * session takes as many blocks as its serialized size needs, so no direct
+ * buffer is allocated per session and freed blocks are reused. Expired
+ * sessions are found from the access time and timeout kept in the index,
+ * without deserializing the stored sessions.
+ *
+ * @author Marcio Carvalho
+ */
+class OffHeapStore extends SerializedStoreBase {
+
+    /**
+     * Maximum size of a direct buffer chunk
+     */
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Maximum direct memory used, in bytes
+     */
+    private final long capacity;
+
+    /**
+     * Block size, in bytes
+     */
+    private final int blockSize;
+
+    /**
+     * Blocks per direct buffer chunk
+     */
+    private final int blocksPerChunk;
+
+    /**
+     * Maximum number of blocks
+     */
+    private final long maxBlocks;
+
+    /**
+     * Allocated direct buffers
+     */
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+
+    /**
+     * Free block ids
+     */
+    private int[] freeBlocks = new int[0];
+
+    private int freeCount;
+
+    /**
+     * Stored sessions by id
+     */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * @param capacity
+     *         maximum direct memory used, in bytes
+     * @param blockSize
+     *         block size, in bytes
+     */
+    OffHeapStore(long capacity, int blockSize) {
+        if (blockSize <= 0 || capacity < blockSize) {
+            throw new IllegalStateException("Invalid off-heap store capacity " + capacity + " or block size " + blockSize);
+        }
+
+        this.capacity = capacity;
+        this.blockSize = blockSize;
+        this.blocksPerChunk = (int) (Math.min(capacity, MAX_CHUNK_SIZE) / blockSize);
+        this.maxBlocks = capacity / blockSize;
+    }
+
+    @Override
+    public String getStoreName() {
+        return "offHeapStore";
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String[] keys() {
+        return entries.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Only the sessions whose timeout elapsed since their last access
+     *
+     * @return
+     */
+    @Override
+    public synchronized String[] expiredKeys() {
+
+        long now = System.currentTimeMillis();
+        List<String> expired = new ArrayList<>();
+
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().isExpired(now)) {
+                expired.add(entry.getKey());
+            }
+        }
+
+        return expired.toArray(new String[0]);
+    }
+
+    /**
+     * @return direct memory taken by the stored sessions, in bytes
+     */
+    public synchronized long getUsedBytes() {
+        long blocks = 0;
+
+        for (Entry entry : entries.values()) {
+            blocks += entry.blocks.length;
+        }
+
+        return blocks * blockSize;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized void remove(String id) {
+
+        Entry entry = entries.remove(id);
+
+        if (entry != null) {
+            free(entry.blocks);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+
+        for (Entry entry : entries.values()) {
+            free(entry.blocks);
+        }
+
+        entries.clear();
+    }
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+
+        entries.clear();
+        chunks.clear();
+        freeBlocks = new int[0];
+        freeCount = 0;
+    }
+
+    @Override
+    protected synchronized byte[] read(String id) {
+
+        Entry entry = entries.get(id);
+
+        if (entry == null) {
+            return null;
+        }
+
+        byte[] data = new byte[entry.length];
+
+        for (int i = 0, offset = 0; i < entry.blocks.length; i++, offset += blockSize) {
+            block(entry.blocks[i]).get(data, offset, Math.min(blockSize, data.length - offset));
+        }
+
+        return data;
+    }
+
+    @Override
+    protected synchronized void write(String id, byte[] data, long lastAccessed, int maxInactiveInterval)
+            throws IOException {
+
+        Entry previous = entries.get(id);
+        int count = (data.length + blockSize - 1) / blockSize;
+        int[] blocks;
+
+        // the previous copy is kept until the new one is allocated
+        try {
+            blocks = allocate(count);
+        } catch (IOException e) {
+            if (previous == null) {
+                throw e;
+            }
+
+            free(previous.blocks);
+
+            try {
+                blocks = allocate(count);
+            } catch (IOException retry) {
+                reclaim(previous.blocks);
+                throw retry;
+            }
+
+            previous = null;
+        }
+
+        if (previous != null) {
+            free(previous.blocks);
+        }
+
+        for (int i = 0, offset = 0; i < blocks.length; i++, offset += blockSize) {
+            block(blocks[i]).put(data, offset, Math.min(blockSize, data.length - offset));
+        }
+
+        entries.put(id, new Entry(blocks, data.length, lastAccessed, maxInactiveInterval));
+    }
+
+    /**
+     * @param id
+     *         block id
+     * @return buffer positioned at the block start
+     */
+    private ByteBuffer block(int id) {
+        ByteBuffer block = chunks.get(id / blocksPerChunk).duplicate();
+        block.position((id % blocksPerChunk) * blockSize);
+        return block;
+    }
+
+    private int[] allocate(int count) throws IOException {
+
+        while (freeCount < count && (long) chunks.size() * blocksPerChunk < maxBlocks) {
+            int blocks = (int) Math.min(blocksPerChunk, maxBlocks - (long) chunks.size() * blocksPerChunk);
+            int first = chunks.size() * blocksPerChunk;
+
+            try {
+                chunks.add(ByteBuffer.allocateDirect(blocks * blockSize));
+            } catch (OutOfMemoryError e) {
+                throw new IOException("Unable to allocate off-heap session memory", e);
+            }
+
+            for (int i = blocks - 1; i >= 0; i--) {
+                push(first + i);
+            }
+        }
+
+        if (freeCount < count) {
+            throw new IOException("Off-heap session store full: " + capacity + " bytes");
+        }
+
+        int[] blocks = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            blocks[i] = freeBlocks[--freeCount];
+        }
+
+        return blocks;
+    }
+
+    private void free(int[] blocks) {
+        for (int block : blocks) {
+            push(block);
+        }
+    }
+
+    /**
+     * Takes blocks back from the free blocks, their content untouched
+     *
+     * @param blocks
+     */
+    private void reclaim(int[] blocks) {
+
+        Set<Integer> reclaimed = new HashSet<>();
+
+        for (int block : blocks) {
+            reclaimed.add(block);
+        }
+
+        int kept = 0;
+
+        for (int i = 0; i < freeCount; i++) {
+            if (!reclaimed.contains(freeBlocks[i])) {
+                freeBlocks[kept++] = freeBlocks[i];
+            }
+        }
+
+        freeCount = kept;
+    }
+
+    private void push(int block) {
+
+        if (freeCount == freeBlocks.length) {
+            int[] grown = new int[Math.max(1024, freeBlocks.length * 2)];
+            System.arraycopy(freeBlocks, 0, grown, 0, freeCount);
+            freeBlocks = grown;
+        }
+
+        freeBlocks[freeCount++] = block;
+    }
+
+    /**
+     * Stored session location and expiration data
+     */
+    private static class Entry {
+
+        private final int[] blocks;
+
+        private final int length;
+
+        private final long lastAccessed;
+
+        private final int maxInactiveInterval;
+
+        private Entry(int[] blocks, int length, long lastAccessed, int maxInactiveInterval) {
+            this.blocks = blocks;
+            this.length = length;
+            this.lastAccessed = lastAccessed;
+            this.maxInactiveInterval = maxInactiveInterval;
+        }
+
+        private boolean isExpired(long now) {
+            return maxInactiveInterval > 0 && now - lastAccessed >= maxInactiveInterval * 1000L;
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package com.github.marweck.tomcat.session;
+
+import org.apache.catalina.Engine;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Pipeline;
+import org.apache.catalina.Session;
+import org.apache.catalina.Valve;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.codec.FstCodec;
+import org.redisson.config.Config;
+import org.redisson.tomcat.RedissonSessionManager;
+
+import javax.servlet.http.HttpSession;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Redisson session manager configured in memory, with an optional near-cache.
+ * <p>
+ * The near-cache keeps the recently used sessions in the local session map,
+ * reading them from memory and writing them back after each request. Changes
+ * made by the other nodes are applied to the local copies through Redis
+ * pub/sub. Sessions beyond the cache size, or not used within the cache TTL,
+ * are dropped from memory only and reloaded from Redis on their next use.
+ * Sessions used by a request in progress are never dropped.
+ * <p>
+ * With delta replication, sessions are read from memory as well and only
+ * their changed attributes are written back after each request.
+ * <p>
+ * With lazy loading, sessions are only read from Redis once the application
+ * asks for them and only written back after the requests which did.
+ *
+ * @author Marcio Carvalho
+ */
+class RedisSessionManager extends RedissonSessionManager {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(RedisSessionManager.class);
+
+    /**
+     * Redisson configuration
+     */
+    private final Config config;
+
+    /**
+     * Maximum number of sessions kept in memory. Near-cache disabled when 0
+     */
+    private final int nearCacheSize;
+
+    /**
+     * Milliseconds an unused session is kept in memory
+     */
+    private final long nearCacheTtl;
+
+    /**
+     * Session ids in least recently used order, with their last use time
+     */
+    private final LinkedHashMap<String, Long> recentlyUsed = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Ids of the sessions used by requests in progress, with the number of
+     * those requests. Guarded by the recently used lock
+     */
+    private final Map<String, Integer> pinned = new HashMap<>();
+
+    /**
+     * Ids of the sessions used by the current request, pinned until its write
+     * back. Null outside of a request
+     */
+    private final ThreadLocal<Set<String>> requestSessions = new ThreadLocal<>();
+
+    /**
+     * Attribute values codec. FST when null
+     */
+    private final SessionCodec codec;
+
+    /**
+     * Determines whether only the changed attributes are written back
+     */
+    private final boolean deltaReplication;
+
+    /**
+     * Determines whether the sessions not used by a request are left alone
+     */
+    private final boolean lazyLoading;
+
+    /**
+     * Set once the current request has ended, until the session write back
+     */
+    private final ThreadLocal<Boolean> requestEnded = new ThreadLocal<>();
+
+    /**
+     * Metrics of the manager context
+     */
+    private volatile SessionMetrics metrics;
+
+    /**
+     * @param store
+     *         session store settings
+     * @param config
+     *         Redisson configuration
+     */
+    RedisSessionManager(RedisSessionStore store, Config config) {
+        this.config = config;
+        this.codec = store.getCodec();
+        this.nearCacheSize = store.getNearCacheSize();
+        this.nearCacheTtl = store.getNearCacheTtl() * 1000L;
+        this.deltaReplication = store.isDeltaReplication();
+        this.lazyLoading = store.isLazyLoading();
+
+        if (isNearCache() || deltaReplication || lazyLoading) {
+            setReadMode(ReadMode.MEMORY.name());
+            setUpdateMode(UpdateMode.AFTER_REQUEST.name());
+        }
+    }
+
+    /**
+     * Creates the client from the in memory configuration, with a codec bound
+     * to the web application class loader
+     *
+     * @return
+     * @throws LifecycleException
+     */
+    @Override
+    protected RedissonClient buildClient() throws LifecycleException {
+        try {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+            Config clientConfig = new Config(config);
+            clientConfig.setCodec(codec == null ? new FstCodec(classLoader) : new RedissonSessionCodec(codec, classLoader));
+
+            return Redisson.create(clientConfig);
+        } catch (RuntimeException e) {
+            throw new LifecycleException("Unable to connect to Redis", e);
+        }
+    }
+
+    /**
+     * Installs the session request valve inside the Redisson update valve,
+     * once per engine. The valve is left in place when the manager stops, as
+     * it ignores the contexts not tracking their requests.
+     *
+     * @throws LifecycleException
+     */
+    @Override
+    protected void startInternal() throws LifecycleException {
+
+        super.startInternal();
+
+        if (!isTrackingRequests()) {
+            return;
+        }
+
+        Pipeline pipeline = ((Engine) getContext().getParent().getParent()).getPipeline();
+
+        synchronized (SessionRequestValve.class) {
+            for (Valve valve : pipeline.getValves()) {
+                if (valve instanceof SessionRequestValve) {
+                    return;
+                }
+            }
+
+            pipeline.addValve(new SessionRequestValve());
+        }
+    }
+
+    @Override
+    public Session createEmptySession() {
+
+        if (!deltaReplication) {
+            return super.createEmptySession();
+        }
+
+        return new DeltaRedisSession(this, ReadMode.valueOf(getReadMode()), UpdateMode.valueOf(getUpdateMode()),
+                isBroadcastSessionEvents());
+    }
+
+    /**
+     * Sessions missing from memory are loaded from Redis, recorded as near-cache
+     * misses when the near-cache is enabled
+     */
+    @Override
+    public Session findSession(String id) throws IOException {
+
+        // end of request lookup of a session the request never used
+        if (lazyLoading && requestEnded.get() != null) {
+            return null;
+        }
+
+        boolean local = id != null && sessions.containsKey(id);
+        long start = System.nanoTime();
+        Session session;
+
+        try {
+            session = super.findSession(id);
+        } catch (IOException | RuntimeException e) {
+            getMetrics().recordError();
+            throw e;
+        }
+
+        // lookups of unknown or expired sessions are not loads
+        if (session != null && !local) {
+            getMetrics().recordLoad(System.nanoTime() - start, storedSize(session));
+        }
+
+        if (id != null && isNearCache()) {
+            if (local) {
+                getMetrics().recordNearCacheHit();
+            } else {
+                getMetrics().recordNearCacheMiss();
+            }
+        }
+
+        if (session != null && isNearCache()) {
+            synchronized (recentlyUsed) {
+                recentlyUsed.put(id, System.currentTimeMillis());
+                pin(id);
+            }
+        }
+
+        return session;
+    }
+
+    /**
+     * Write back at the end of the request, unpinning the sessions it used
+     *
+     * @param session
+     * @throws IOException
+     */
+    @Override
+    public void store(HttpSession session) throws IOException {
+
+        requestEnded.remove();
+
+        if (session == null) {
+            unpinRequestSessions();
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            super.store(session);
+        } catch (IOException | RuntimeException e) {
+            getMetrics().recordError();
+            throw e;
+        } finally {
+            unpinRequestSessions();
+        }
+
+        getMetrics().recordSave(System.nanoTime() - start, storedSize(sessions.get(session.getId())));
+    }
+
+    /**
+     * @param session
+     *         session in memory, or null
+     * @return serialized size of the delta replicated session attributes, or -1
+     * when the session is saved by Redisson as a whole
+     */
+    private static long storedSize(Session session) {
+        return session instanceof DeltaRedisSession ? ((DeltaRedisSession) session).getStoredSize() : -1;
+    }
+
+    boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
+    /**
+     * @return true when the session request valve must report the requests
+     * start and end
+     */
+    boolean isTrackingRequests() {
+        return lazyLoading || isNearCache();
+    }
+
+    /**
+     * Called by the session request valve when a request starts
+     */
+    void requestStarted() {
+        requestEnded.remove();
+        unpinRequestSessions();
+
+        if (isNearCache()) {
+            requestSessions.set(new HashSet<>());
+        }
+    }
+
+    /**
+     * Called by the session request valve when a request ends, right before
+     * the Redisson update valve looks the request session up. The sessions
+     * invalidated during the request are unpinned, as the update valve never
+     * writes them back. The valid ones stay pinned until their write back.
+     */
+    void requestEnded() {
+        requestEnded.set(Boolean.TRUE);
+        unpinInvalidSessions();
+    }
+
+    @Override
+    public void add(Session session) {
+
+        super.add(session);
+
+        if (isNearCache()) {
+            synchronized (recentlyUsed) {
+                recentlyUsed.put(session.getIdInternal(), System.currentTimeMillis());
+                pin(session.getIdInternal());
+
+                if (recentlyUsed.size() > nearCacheSize) {
+                    evict(System.currentTimeMillis());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void remove(Session session, boolean update) {
+
+        super.remove(session, update);
+
+        if (isNearCache()) {
+            synchronized (recentlyUsed) {
+                recentlyUsed.remove(session.getIdInternal());
+            }
+        }
+    }
+
+    /**
+     * Drops the unused sessions from memory before the regular expiration, so
+     * a stale local copy is never expired on behalf of the other nodes
+     */
+    @Override
+    public void processExpires() {
+
+        if (isNearCache()) {
+            synchronized (recentlyUsed) {
+                evict(System.currentTimeMillis());
+            }
+        }
+
+        super.processExpires();
+    }
+
+    private SessionMetrics getMetrics() {
+
+        if (metrics == null) {
+            metrics = SessionMetrics.of(getContext());
+        }
+
+        return metrics;
+    }
+
+    private boolean isNearCache() {
+        return nearCacheSize > 0;
+    }
+
+    /**
+     * Pins a session until the write back of the current request, if any.
+     * Must be called holding the recently used lock.
+     *
+     * @param id
+     *         session id
+     */
+    private void pin(String id) {
+
+        Set<String> ids = requestSessions.get();
+
+        if (ids != null && ids.add(id)) {
+            pinned.merge(id, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Unpins the sessions used by the current request
+     */
+    private void unpinRequestSessions() {
+
+        Set<String> ids = requestSessions.get();
+
+        if (ids == null) {
+            return;
+        }
+
+        requestSessions.remove();
+
+        synchronized (recentlyUsed) {
+            for (String id : ids) {
+                pinned.computeIfPresent(id, (key, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+    }
+
+    /**
+     * Unpins the sessions used by the current request which are no longer
+     * valid in memory
+     */
+    private void unpinInvalidSessions() {
+
+        Set<String> ids = requestSessions.get();
+
+        if (ids == null) {
+            return;
+        }
+
+        Set<String> invalid = new HashSet<>();
+
+        // checked outside of the lock, as the validity check may expire a session
+        for (String id : ids) {
+            Session session = sessions.get(id);
+
+            if (session == null || !session.isValid()) {
+                invalid.add(id);
+            }
+        }
+
+        ids.removeAll(invalid);
+
+        synchronized (recentlyUsed) {
+            for (String id : invalid) {
+                pinned.computeIfPresent(id, (key, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+    }
+
+    /**
+     * Drops the least recently used sessions beyond the cache size and the
+     * ones unused within the TTL, skipping the sessions pinned by a request.
+     * Must be called holding the recently used lock.
+     *
+     * @param now
+     *         current time
+     */
+    private void evict(long now) {
+
+        int evicted = 0;
+        Iterator<Map.Entry<String, Long>> entries = recentlyUsed.entrySet().iterator();
+
+        while (entries.hasNext()) {
+            Map.Entry<String, Long> entry = entries.next();
+            boolean stale = nearCacheTtl > 0 && now - entry.getValue() > nearCacheTtl;
+
+            if (recentlyUsed.size() <= nearCacheSize && !stale) {
+                break;
+            }
+
+            Session session = sessions.get(entry.getKey());
+
+            if (session == null) {
+                entries.remove();
+            } else if (!pinned.containsKey(entry.getKey())) {
+                entries.remove();
+                sessions.remove(entry.getKey());
+                evicted++;
+            }
+        }
+
+        if (evicted > 0 && log.isDebugEnabled()) {
+            log.debug("Near-cache evicted " + evicted + " sessions, " + recentlyUsed.size() + " left");
+        }
+    }
+}
@@ -1,27 +1,122 @@
 package com.github.marweck.tomcat.session;
 
 import org.apache.catalina.Context;
-import org.redisson.codec.FstCodec;
+import org.redisson.config.BaseMasterSlaveServersConfig;
 import org.redisson.config.Config;
+import org.redisson.config.ReadMode;
 import org.redisson.config.SingleServerConfig;
-import org.redisson.tomcat.RedissonSessionManager;
-
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 
 /**
  * Adds Redis Session capabilities to Tomcat
+ * <p>
+ * A single server is used by default. Sentinel, master/replica and cluster
+ * topologies take the Redis URL as their first node.
  */
 public class RedisSessionStore implements SessionStore {
 
+    /**
+     * Redis deployment topologies
+     */
+    public enum Topology {
+
+        /**
+         * One Redis server
+         */
+        SINGLE,
+
+        /**
+         * Master discovered through the sentinels
+         */
+        SENTINEL,
+
+        /**
+         * Fixed master and replicas
+         */
+        MASTER_REPLICA,
+
+        /**
+         * Redis cluster, discovered from the seed nodes
+         */
+        CLUSTER
+    }
+
     private final String redisUrl;
 
     private final String clientName;
 
     private final String password;
 
+    /**
+     * Maximum number of sessions kept in memory. Near-cache disabled when 0
+     */
+    private int nearCacheSize;
+
+    /**
+     * Seconds an unused session is kept in memory
+     */
+    private int nearCacheTtl;
+
+    /**
+     * Redis deployment topology
+     */
+    private Topology topology = Topology.SINGLE;
+
+    /**
+     * Sentinel master name
+     */
+    private String masterName;
+
+    /**
+     * Other sentinels, replicas or cluster seed nodes
+     */
+    private String[] nodes = new String[0];
+
+    /**
+     * Determines whether sessions are read from the replicas
+     */
+    private boolean replicaReads;
+
+    /**
+     * Maximum number of connections per node
+     */
+    private Integer connectionPoolSize;
+
+    /**
+     * Number of idle connections kept open per node
+     */
+    private Integer connectionMinimumIdleSize;
+
+    /**
+     * Milliseconds to wait for a command response
+     */
+    private Integer timeout;
+
+    /**
+     * Number of times a failed command is retried
+     */
+    private Integer retryAttempts;
+
+    /**
+     * Milliseconds between command retries
+     */
+    private Integer retryInterval;
+
+    /**
+     * Attribute values codec. FST when null
+     */
+    private SessionCodec codec;
+
+    /**
+     * Determines whether only the changed attributes are written back
+     */
+    private boolean deltaReplication;
+
+    /**
+     * Determines whether sessions are only read once the application asks for
+     * them
+     */
+    private boolean lazyLoading;
+
     public RedisSessionStore(String redisUrl, String clientName, String password) {
         this.redisUrl = redisUrl;
         this.clientName = clientName;
@@ -32,13 +127,244 @@ public class RedisSessionStore implements SessionStore {
         this(redisUrl, null, null);
     }
 
+    public int getNearCacheSize() {
+        return nearCacheSize;
+    }
+
+    public int getNearCacheTtl() {
+        return nearCacheTtl;
+    }
+
+    /**
+     * Keeps the recently used sessions in memory, saving a Redis round trip
+     * on each request. Changes made by the other nodes are applied through
+     * Redis pub/sub; sessions are written back to Redis after each request.
+     *
+     * @param size
+     *         maximum number of sessions kept in memory, 0 to disable
+     * @param ttl
+     *         seconds an unused session is kept in memory, 0 to keep it until
+     *         it expires. Should be lower than the session timeout
+     */
+    public RedisSessionStore setNearCache(int size, int ttl) {
+        this.nearCacheSize = size;
+        this.nearCacheTtl = ttl;
+        return this;
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    /**
+     * Uses the sentinels to find the master, the Redis URL being the first
+     * sentinel
+     *
+     * @param masterName
+     *         name of the master monitored by the sentinels
+     * @param sentinels
+     *         other sentinel URLs
+     */
+    public RedisSessionStore useSentinel(String masterName, String... sentinels) {
+        if (masterName == null) {
+            throw new IllegalStateException("Sentinel master name is null");
+        }
+
+        this.topology = Topology.SENTINEL;
+        this.masterName = masterName;
+        this.nodes = sentinels;
+        return this;
+    }
+
+    /**
+     * Uses a fixed master, the Redis URL, and its replicas
+     *
+     * @param replicas
+     *         replica URLs
+     */
+    public RedisSessionStore useMasterReplica(String... replicas) {
+        this.topology = Topology.MASTER_REPLICA;
+        this.nodes = replicas;
+        return this;
+    }
+
+    /**
+     * Uses a Redis cluster, the Redis URL being the first seed node
+     *
+     * @param seeds
+     *         other seed node URLs
+     */
+    public RedisSessionStore useCluster(String... seeds) {
+        this.topology = Topology.CLUSTER;
+        this.nodes = seeds;
+        return this;
+    }
+
+    public boolean isReplicaReads() {
+        return replicaReads;
+    }
+
+    /**
+     * @param replicaReads
+     *         Reads sessions from the replicas, offloading the master. Ignored
+     *         by the single server topology
+     */
+    public RedisSessionStore setReplicaReads(boolean replicaReads) {
+        this.replicaReads = replicaReads;
+        return this;
+    }
+
+    public Integer getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    /**
+     * @param connectionPoolSize
+     *         maximum number of connections per node
+     */
+    public RedisSessionStore setConnectionPoolSize(Integer connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize;
+        return this;
+    }
+
+    public Integer getConnectionMinimumIdleSize() {
+        return connectionMinimumIdleSize;
+    }
+
+    /**
+     * @param connectionMinimumIdleSize
+     *         number of idle connections kept open per node
+     */
+    public RedisSessionStore setConnectionMinimumIdleSize(Integer connectionMinimumIdleSize) {
+        this.connectionMinimumIdleSize = connectionMinimumIdleSize;
+        return this;
+    }
+
+    public Integer getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout
+     *         milliseconds to wait for a command response
+     */
+    public RedisSessionStore setTimeout(Integer timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public Integer getRetryAttempts() {
+        return retryAttempts;
+    }
+
+    /**
+     * @param retryAttempts
+     *         number of times a failed command is retried
+     */
+    public RedisSessionStore setRetryAttempts(Integer retryAttempts) {
+        this.retryAttempts = retryAttempts;
+        return this;
+    }
+
+    public Integer getRetryInterval() {
+        return retryInterval;
+    }
+
+    /**
+     * @param retryInterval
+     *         milliseconds between command retries
+     */
+    public RedisSessionStore setRetryInterval(Integer retryInterval) {
+        this.retryInterval = retryInterval;
+        return this;
+    }
+
+    public SessionCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param codec
+     *         Attribute values codec, such as {@link CompactSessionCodec}.
+     *         FST when null. Every node sharing the sessions must use the
+     *         same codec
+     */
+    public RedisSessionStore setCodec(SessionCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    public boolean isDeltaReplication() {
+        return deltaReplication;
+    }
+
+    /**
+     * @param deltaReplication
+     *         Writes back only the attributes changed by the request,
+     *         including mutable values changed in place, in one pipelined
+     *         batch. Sessions are then read from memory, as with the
+     *         near-cache
+     */
+    public RedisSessionStore setDeltaReplication(boolean deltaReplication) {
+        this.deltaReplication = deltaReplication;
+        return this;
+    }
+
+    public boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
+    /**
+     * @param lazyLoading
+     *         Reads a session from Redis only once the application asks for
+     *         it, and writes it back only after the requests which did.
+     *         Requests never using their session, such as static resources,
+     *         do not reach Redis. Sessions are then read from memory and
+     *         written back after each request, as with the near-cache
+     */
+    public RedisSessionStore setLazyLoading(boolean lazyLoading) {
+        this.lazyLoading = lazyLoading;
+        return this;
+    }
+
     @Override
     public void configureSessionStore(Context ctx) {
+        ctx.setManager(new RedisSessionManager(this, createConfig()));
+    }
+
+    /**
+     * @return Redisson configuration of the topology, with the connection
+     * settings applied to every server
+     */
+    Config createConfig() {
 
         Config config = new Config();
 
-        SingleServerConfig serverConfig = config.useSingleServer().setAddress(redisUrl);
-        config.setCodec(new FstCodec());
+        switch (topology) {
+            case SENTINEL:
+                configureMasterReplica(config.useSentinelServers()
+                        .setMasterName(masterName)
+                        .addSentinelAddress(redisUrl)
+                        .addSentinelAddress(nodes));
+                break;
+            case MASTER_REPLICA:
+                configureMasterReplica(config.useMasterSlaveServers()
+                        .setMasterAddress(redisUrl)
+                        .addSlaveAddress(nodes));
+                break;
+            case CLUSTER:
+                configureMasterReplica(config.useClusterServers()
+                        .addNodeAddress(redisUrl)
+                        .addNodeAddress(nodes));
+                break;
+            default:
+                configureSingleServer(config.useSingleServer().setAddress(redisUrl));
+        }
+
+        return config;
+    }
+
+    private void configureSingleServer(SingleServerConfig serverConfig) {
 
         if (clientName != null) {
             serverConfig.setClientName(clientName);
@@ -48,18 +374,64 @@ public class RedisSessionStore implements SessionStore {
             serverConfig.setPassword(password);
         }
 
-        try {
-            File configFile = File.createTempFile("tomcat-redisson", ".json");
-            configFile.deleteOnExit();
+        if (connectionPoolSize != null) {
+            serverConfig.setConnectionPoolSize(connectionPoolSize);
+        }
+
+        if (connectionMinimumIdleSize != null) {
+            serverConfig.setConnectionMinimumIdleSize(connectionMinimumIdleSize);
+        }
+
+        if (timeout != null) {
+            serverConfig.setTimeout(timeout);
+        }
+
+        if (retryAttempts != null) {
+            serverConfig.setRetryAttempts(retryAttempts);
+        }
+
+        if (retryInterval != null) {
+            serverConfig.setRetryInterval(retryInterval);
+        }
+    }
+
+    /**
+     * Pool sizes apply to the master and to each replica
+     *
+     * @param serversConfig
+     */
+    private void configureMasterReplica(BaseMasterSlaveServersConfig<?> serversConfig) {
+
+        if (clientName != null) {
+            serversConfig.setClientName(clientName);
+        }
+
+        if (password != null) {
+            serversConfig.setPassword(password);
+        }
 
-            try (BufferedWriter bw = new BufferedWriter(new FileWriter(configFile))) {
-                bw.write(config.toJSON());
-                RedissonSessionManager redisManager = new RedissonSessionManager();
-                redisManager.setConfigPath(configFile.getAbsolutePath());
-                ctx.setManager(redisManager);
-            }
-        } catch (IOException e) {
-            throw new IllegalStateException("Redis configuration", e);
+        if (connectionPoolSize != null) {
+            serversConfig.setMasterConnectionPoolSize(connectionPoolSize);
+            serversConfig.setSlaveConnectionPoolSize(connectionPoolSize);
         }
+
+        if (connectionMinimumIdleSize != null) {
+            serversConfig.setMasterConnectionMinimumIdleSize(connectionMinimumIdleSize);
+            serversConfig.setSlaveConnectionMinimumIdleSize(connectionMinimumIdleSize);
+        }
+
+        if (timeout != null) {
+            serversConfig.setTimeout(timeout);
+        }
+
+        if (retryAttempts != null) {
+            serversConfig.setRetryAttempts(retryAttempts);
+        }
+
+        if (retryInterval != null) {
+            serversConfig.setRetryInterval(retryInterval);
+        }
+
+        serversConfig.setReadMode(replicaReads ? ReadMode.SLAVE : ReadMode.MASTER);
     }
 }
@@ -0,0 +1,73 @@
+package com.github.marweck.tomcat.session;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.redisson.client.codec.BaseCodec;
+import org.redisson.client.protocol.Decoder;
+import org.redisson.client.protocol.Encoder;
+
+/**
+ * Redisson codec delegating to a {@link SessionCodec}.
+ * <p>
+ * Redisson copies the codec for each web application through the class
+ * loader constructor, so it must stay public.
+ *
+ * @author Marcio Carvalho
+ */
+public class RedissonSessionCodec extends BaseCodec {
+
+    private final SessionCodec codec;
+
+    private final ClassLoader classLoader;
+
+    private final Encoder encoder;
+
+    private final Decoder<Object> decoder;
+
+    public RedissonSessionCodec(SessionCodec codec, ClassLoader classLoader) {
+        if (codec == null) {
+            throw new IllegalStateException("Session codec is null");
+        }
+
+        this.codec = codec;
+        this.classLoader = classLoader;
+
+        this.encoder = in -> {
+            byte[] data = codec.encode(in);
+            ByteBuf out = ByteBufAllocator.DEFAULT.buffer(data.length);
+            out.writeBytes(data);
+            return out;
+        };
+
+        this.decoder = (buf, state) -> {
+            byte[] data = new byte[buf.readableBytes()];
+            buf.readBytes(data);
+            return codec.decode(data, getClassLoader());
+        };
+    }
+
+    /**
+     * Copy constructor used by Redisson
+     *
+     * @param classLoader
+     * @param codec
+     */
+    public RedissonSessionCodec(ClassLoader classLoader, RedissonSessionCodec codec) {
+        this(codec.codec, classLoader);
+    }
+
+    @Override
+    public Decoder<Object> getValueDecoder() {
+        return decoder;
+    }
+
+    @Override
+    public Encoder getValueEncoder() {
+        return encoder;
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return classLoader != null ? classLoader : super.getClassLoader();
+    }
+}
@@ -0,0 +1,233 @@
+package com.github.marweck.tomcat.session;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
+import org.apache.catalina.Session;
+import org.apache.catalina.session.StandardSession;
+import org.apache.catalina.session.StoreBase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base of the stores keeping sessions as byte arrays, serialized the same way
+ * as the Tomcat file store does.
+ * <p>
+ * With a {@link SessionCodec}, the session fields are still written in the
+ * Tomcat format, but without attributes, and the attribute values follow,
+ * each encoded by the codec.
+ *
+ * @author Marcio Carvalho
+ */
+abstract class SerializedStoreBase extends StoreBase {
+
+    /**
+     * Leads the sessions whose attributes are encoded by the codec
+     */
+    private static final int CODEC_MAGIC = 0x53434f44;
+
+    /**
+     * Metrics of the store context
+     */
+    private volatile SessionMetrics metrics;
+
+    /**
+     * Attribute values codec. Java serialization when null
+     */
+    private SessionCodec codec;
+
+    public SessionCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param codec
+     *         Attribute values codec. Java serialization when null. Sessions
+     *         stored with another codec can not be loaded
+     */
+    public void setCodec(SessionCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public Session load(String id) throws ClassNotFoundException, IOException {
+
+        long start = System.nanoTime();
+        byte[] data;
+
+        try {
+            data = read(id);
+        } catch (IOException | RuntimeException e) {
+            getMetrics().recordError();
+            throw e;
+        }
+
+        if (data == null) {
+            return null;
+        }
+
+        Context context = getManager().getContext();
+        ClassLoader oldClassLoader = context.bind(false, null);
+
+        try (ObjectInputStream in = getObjectInputStream(new ByteArrayInputStream(data))) {
+            StandardSession session = (StandardSession) getManager().createEmptySession();
+
+            if (codec != null) {
+                readEncoded(in, session, Thread.currentThread().getContextClassLoader());
+            } else {
+                session.readObjectData(in);
+            }
+
+            session.setManager(getManager());
+
+            getMetrics().recordLoad(System.nanoTime() - start, data.length);
+            return session;
+        } catch (ClassNotFoundException | IOException | RuntimeException e) {
+            getMetrics().recordError();
+            throw e;
+        } finally {
+            context.unbind(false, oldClassLoader);
+        }
+    }
+
+    @Override
+    public void save(Session session) throws IOException {
+
+        long start = System.nanoTime();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                if (codec != null) {
+                    writeEncoded(out, (StandardSession) session);
+                } else {
+                    ((StandardSession) session).writeObjectData(out);
+                }
+            }
+
+            write(session.getIdInternal(), bytes.toByteArray(), session.getThisAccessedTimeInternal(),
+                    session.getMaxInactiveInterval());
+        } catch (IOException | RuntimeException e) {
+            getMetrics().recordError();
+            throw e;
+        }
+
+        getMetrics().recordSave(System.nanoTime() - start, bytes.size());
+    }
+
+    /**
+     * Writes the session fields in the order read by
+     * {@link StandardSession#readObjectData}, with no attribute, followed by
+     * the attributes Tomcat would serialize, encoded by the codec
+     *
+     * @param out
+     * @param session
+     * @throws IOException
+     */
+    private void writeEncoded(ObjectOutputStream out, StandardSession session) throws IOException {
+
+        boolean valid = session.isValid();
+
+        out.writeInt(CODEC_MAGIC);
+        out.writeObject(session.getCreationTimeInternal());
+        out.writeObject(session.getLastAccessedTimeInternal());
+        out.writeObject(session.getMaxInactiveInterval());
+        out.writeObject(valid && session.isNew());
+        out.writeObject(valid);
+        out.writeObject(session.getThisAccessedTimeInternal());
+        out.writeObject(session.getIdInternal());
+        out.writeObject(0);
+
+        List<String> names = valid ? Collections.list(session.getAttributeNames()) : Collections.emptyList();
+        List<String> written = new ArrayList<>(names.size());
+        List<byte[]> values = new ArrayList<>(names.size());
+
+        for (String name : names) {
+            Object value = session.getAttribute(name);
+
+            if (value instanceof Serializable && !Globals.SUBJECT_ATTR.equals(name) &&
+                    !Globals.GSS_CREDENTIAL_ATTR.equals(name) && session.isAttributeDistributable(name, value)) {
+                written.add(name);
+                values.add(codec.encode(value));
+            }
+        }
+
+        out.writeInt(written.size());
+
+        for (int i = 0; i < written.size(); i++) {
+            out.writeUTF(written.get(i));
+            out.writeInt(values.get(i).length);
+            out.write(values.get(i));
+        }
+    }
+
+    /**
+     * Reads a session written by {@link #writeEncoded}
+     *
+     * @param in
+     * @param session
+     * @param classLoader
+     *         web application class loader
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    private void readEncoded(ObjectInputStream in, StandardSession session, ClassLoader classLoader)
+            throws ClassNotFoundException, IOException {
+
+        if (in.readInt() != CODEC_MAGIC) {
+            throw new StreamCorruptedException("Session not encoded by the session codec");
+        }
+
+        session.readObjectData(in);
+
+        int count = in.readInt();
+
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            session.setAttribute(name, codec.decode(value, classLoader), false);
+        }
+    }
+
+    private SessionMetrics getMetrics() {
+
+        if (metrics == null) {
+            metrics = SessionMetrics.of(getManager().getContext());
+        }
+
+        return metrics;
+    }
+
+    /**
+     * @param id
+     *         session id
+     * @return serialized session, or null when not stored
+     * @throws IOException
+     */
+    protected abstract byte[] read(String id) throws IOException;
+
+    /**
+     * Stores a serialized session, replacing the previous one
+     *
+     * @param id
+     *         session id
+     * @param data
+     *         serialized session
+     * @param lastAccessed
+     *         session last access time
+     * @param maxInactiveInterval
+     *         session timeout, in seconds
+     * @throws IOException
+     */
+    protected abstract void write(String id, byte[] data, long lastAccessed, int maxInactiveInterval)
+            throws IOException;
+}
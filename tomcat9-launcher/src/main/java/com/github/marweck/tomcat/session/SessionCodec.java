@@ -0,0 +1,34 @@
+package com.github.marweck.tomcat.session;
+
+import java.io.IOException;
+
+/**
+ * Serializes session attribute values for the session stores keeping
+ * sessions outside the heap or outside the JVM.
+ * <p>
+ * Implementations must be thread safe.
+ *
+ * @author Marcio Carvalho
+ */
+public interface SessionCodec {
+
+    /**
+     * @param value
+     *         attribute value, possibly null
+     * @return serialized value
+     * @throws IOException
+     *         when the value can not be serialized
+     */
+    byte[] encode(Object value) throws IOException;
+
+    /**
+     * @param data
+     *         serialized value
+     * @param classLoader
+     *         web application class loader, resolving the application classes
+     * @return attribute value, possibly null
+     * @throws IOException
+     *         when the data is corrupted or a class can not be resolved
+     */
+    Object decode(byte[] data, ClassLoader classLoader) throws IOException;
+}
@@ -0,0 +1,376 @@
+package com.github.marweck.tomcat.session;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.Manager;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Session metrics of a web application: session load and save latency,
+ * serialized session size, active sessions, near-cache hits and store errors.
+ * <p>
+ * Metrics are created for each context on startup, registered as a JMX MBean
+ * named {@code com.github.marweck.tomcat:type=SessionMetrics,context=<path>}
+ * and also available in the Prometheus text exposition format through
+ * {@link #exposition()}. The session stores record what applies to them.
+ *
+ * @author Marcio Carvalho
+ */
+public class SessionMetrics implements SessionMetricsMBean {
+
+    /**
+     * JULI logger
+     */
+    private static final Log log = LogFactory.getLog(SessionMetrics.class);
+
+    /**
+     * Latency histogram bounds, in microseconds
+     */
+    private static final long[] LATENCY_BOUNDS =
+            {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000};
+
+    /**
+     * Size histogram bounds, in bytes
+     */
+    private static final long[] SIZE_BOUNDS = {256, 1024, 4096, 16384, 65536, 262144, 1048576, 4194304};
+
+    /**
+     * Metrics by context name
+     */
+    private static final Map<String, SessionMetrics> metrics = new ConcurrentHashMap<>();
+
+    private final Context context;
+
+    private final String contextName;
+
+    private final Histogram loadTime = new Histogram(LATENCY_BOUNDS);
+
+    private final Histogram saveTime = new Histogram(LATENCY_BOUNDS);
+
+    private final Histogram size = new Histogram(SIZE_BOUNDS);
+
+    private final LongAdder nearCacheHits = new LongAdder();
+
+    private final LongAdder nearCacheMisses = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private SessionMetrics(Context context) {
+        this.context = context;
+        this.contextName = context.getName() == null || context.getName().isEmpty() ? "/" : context.getName();
+    }
+
+    /**
+     * Session metrics of a context, registered on first use and unregistered
+     * when the context is destroyed
+     *
+     * @param context
+     *         web application context
+     * @return
+     */
+    public static SessionMetrics of(Context context) {
+        return metrics.compute(context.getName() == null ? "" : context.getName(),
+                (name, existing) -> existing != null && existing.context == context ? existing :
+                        register(new SessionMetrics(context)));
+    }
+
+    /**
+     * @return session metrics of every web application
+     */
+    public static Collection<SessionMetrics> all() {
+        return Collections.unmodifiableCollection(metrics.values());
+    }
+
+    /**
+     * @return session metrics of every web application in the Prometheus text
+     * exposition format
+     */
+    public static String exposition() {
+        return format(new ArrayList<>(metrics.values()));
+    }
+
+    /**
+     * Records a session loaded from the store
+     *
+     * @param nanos
+     *         load time
+     * @param bytes
+     *         serialized size, or a negative value when unknown
+     */
+    public void recordLoad(long nanos, long bytes) {
+        loadTime.record(nanos / 1000);
+
+        if (bytes >= 0) {
+            size.record(bytes);
+        }
+    }
+
+    /**
+     * Records a session saved to the store
+     *
+     * @param nanos
+     *         save time
+     * @param bytes
+     *         serialized size, or a negative value when unknown
+     */
+    public void recordSave(long nanos, long bytes) {
+        saveTime.record(nanos / 1000);
+
+        if (bytes >= 0) {
+            size.record(bytes);
+        }
+    }
+
+    public void recordNearCacheHit() {
+        nearCacheHits.increment();
+    }
+
+    public void recordNearCacheMiss() {
+        nearCacheMisses.increment();
+    }
+
+    public void recordError() {
+        errors.increment();
+    }
+
+    @Override
+    public String getContextName() {
+        return contextName;
+    }
+
+    @Override
+    public int getActiveSessions() {
+        Manager manager = context.getManager();
+        return manager == null ? 0 : manager.getActiveSessions();
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadTime.count.sum();
+    }
+
+    @Override
+    public double getLoadTimeAvg() {
+        return loadTime.average() / 1000;
+    }
+
+    @Override
+    public double getLoadTimeMax() {
+        return loadTime.max.get() / 1000.0;
+    }
+
+    @Override
+    public long getSaveCount() {
+        return saveTime.count.sum();
+    }
+
+    @Override
+    public double getSaveTimeAvg() {
+        return saveTime.average() / 1000;
+    }
+
+    @Override
+    public double getSaveTimeMax() {
+        return saveTime.max.get() / 1000.0;
+    }
+
+    @Override
+    public double getSizeAvg() {
+        return size.average();
+    }
+
+    @Override
+    public long getSizeMax() {
+        return size.max.get();
+    }
+
+    @Override
+    public long getNearCacheHits() {
+        return nearCacheHits.sum();
+    }
+
+    @Override
+    public long getNearCacheMisses() {
+        return nearCacheMisses.sum();
+    }
+
+    @Override
+    public double getNearCacheHitRatio() {
+        long hits = nearCacheHits.sum();
+        long total = hits + nearCacheMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public String getText() {
+        return format(Collections.singletonList(this));
+    }
+
+    private static SessionMetrics register(SessionMetrics sessionMetrics) {
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            ObjectName name = new ObjectName("com.github.marweck.tomcat:type=SessionMetrics,context=" +
+                    ObjectName.quote(sessionMetrics.contextName));
+
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+
+            server.registerMBean(sessionMetrics, name);
+
+            sessionMetrics.context.addLifecycleListener(event -> {
+                if (Lifecycle.AFTER_DESTROY_EVENT.equals(event.getType())) {
+                    metrics.remove(sessionMetrics.context.getName() == null ? "" : sessionMetrics.context.getName(),
+                            sessionMetrics);
+                    unregister(server, name);
+                }
+            });
+        } catch (JMException e) {
+            log.warn("Unable to register the session metrics of " + sessionMetrics.contextName, e);
+        }
+
+        return sessionMetrics;
+    }
+
+    private static void unregister(MBeanServer server, ObjectName name) {
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException e) {
+            log.debug("Unable to unregister " + name, e);
+        }
+    }
+
+    private static String format(List<SessionMetrics> list) {
+
+        StringBuilder out = new StringBuilder();
+
+        family(out, "tomcat_session_active", "gauge", "Active sessions");
+        list.forEach(m -> sample(out, "tomcat_session_active", m, null, m.getActiveSessions()));
+
+        family(out, "tomcat_session_load_seconds", "histogram", "Session load time from the store");
+        list.forEach(m -> m.loadTime.format(out, "tomcat_session_load_seconds", m, 1e6));
+
+        family(out, "tomcat_session_save_seconds", "histogram", "Session save time to the store");
+        list.forEach(m -> m.saveTime.format(out, "tomcat_session_save_seconds", m, 1e6));
+
+        family(out, "tomcat_session_size_bytes", "histogram", "Serialized session size");
+        list.forEach(m -> m.size.format(out, "tomcat_session_size_bytes", m, 1));
+
+        family(out, "tomcat_session_near_cache_hits_total", "counter", "Sessions found in the near-cache");
+        list.forEach(m -> sample(out, "tomcat_session_near_cache_hits_total", m, null, m.getNearCacheHits()));
+
+        family(out, "tomcat_session_near_cache_misses_total", "counter", "Sessions missing from the near-cache");
+        list.forEach(m -> sample(out, "tomcat_session_near_cache_misses_total", m, null, m.getNearCacheMisses()));
+
+        family(out, "tomcat_session_store_errors_total", "counter", "Session store errors");
+        list.forEach(m -> sample(out, "tomcat_session_store_errors_total", m, null, m.getErrorCount()));
+
+        return out.toString();
+    }
+
+    private static void family(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, SessionMetrics m, String le, double value) {
+        out.append(name).append("{context=\"").append(m.contextName.replace("\\", "\\\\").replace("\"", "\\\""))
+                .append('"');
+
+        if (le != null) {
+            out.append(",le=\"").append(le).append('"');
+        }
+
+        out.append("} ").append(value == Math.rint(value) ? Long.toString((long) value) :
+                String.format(Locale.ROOT, "%.6f", value)).append('\n');
+    }
+
+    /**
+     * Histogram with fixed bucket bounds
+     */
+    private static class Histogram {
+
+        private final long[] bounds;
+
+        /**
+         * Bucket counts, the last one above all bounds
+         */
+        private final AtomicLongArray buckets;
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder sum = new LongAdder();
+
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        private void record(long value) {
+            int bucket = 0;
+
+            while (bucket < bounds.length && value > bounds[bucket]) {
+                bucket++;
+            }
+
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        private double average() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /**
+         * Writes the cumulative buckets, sum and count
+         *
+         * @param unit
+         *         recorded values per exposed unit
+         */
+        private void format(StringBuilder out, String name, SessionMetrics m, double unit) {
+            long cumulative = 0;
+
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets.get(i);
+                sample(out, name + "_bucket", m, formatBound(bounds[i] / unit), cumulative);
+            }
+
+            sample(out, name + "_bucket", m, "+Inf", cumulative + buckets.get(bounds.length));
+            sample(out, name + "_sum", m, null, sum.sum() / unit);
+            sample(out, name + "_count", m, null, count.sum());
+        }
+
+        private static String formatBound(double bound) {
+            return BigDecimal.valueOf(bound).stripTrailingZeros().toPlainString();
+        }
+    }
+}
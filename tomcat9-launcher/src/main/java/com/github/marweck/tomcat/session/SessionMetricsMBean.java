@@ -0,0 +1,43 @@
+package com.github.marweck.tomcat.session;
+
+/**
+ * JMX view of the session metrics of a web application. Times are in
+ * milliseconds, sizes in bytes.
+ *
+ * @author Marcio Carvalho
+ */
+public interface SessionMetricsMBean {
+
+    String getContextName();
+
+    int getActiveSessions();
+
+    long getLoadCount();
+
+    double getLoadTimeAvg();
+
+    double getLoadTimeMax();
+
+    long getSaveCount();
+
+    double getSaveTimeAvg();
+
+    double getSaveTimeMax();
+
+    double getSizeAvg();
+
+    long getSizeMax();
+
+    long getNearCacheHits();
+
+    long getNearCacheMisses();
+
+    double getNearCacheHitRatio();
+
+    long getErrorCount();
+
+    /**
+     * @return metrics in the Prometheus text exposition format
+     */
+    String getText();
+}
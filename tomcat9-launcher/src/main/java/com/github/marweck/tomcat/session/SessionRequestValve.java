@@ -0,0 +1,63 @@
+package com.github.marweck.tomcat.session;
+
+import org.apache.catalina.Manager;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+
+/**
+ * Engine valve marking the start and end of the requests to the Redis
+ * contexts loading their sessions lazily or keeping them in a near-cache.
+ * <p>
+ * It runs inside the Redisson update valve, so the end of request session
+ * lookup of that valve reaches the manager once the request has ended. That
+ * lookup only happens for requests which never resolved their session. The
+ * sessions a request uses stay pinned in the near-cache until the write back
+ * of that valve, or until the request ends for the sessions it invalidated,
+ * which that valve never writes back.
+ *
+ * @author Marcio Carvalho
+ */
+class SessionRequestValve extends ValveBase {
+
+    SessionRequestValve() {
+        super(true);
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+
+        RedisSessionManager manager = getTrackingManager(request);
+
+        if (manager == null) {
+            getNext().invoke(request, response);
+            return;
+        }
+
+        manager.requestStarted();
+
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            // async requests may resolve their session later, from another thread
+            if (!request.isAsyncStarted()) {
+                manager.requestEnded();
+            }
+        }
+    }
+
+    private static RedisSessionManager getTrackingManager(Request request) {
+
+        if (request.getContext() == null) {
+            return null;
+        }
+
+        Manager manager = request.getContext().getManager();
+
+        return manager instanceof RedisSessionManager && ((RedisSessionManager) manager).isTrackingRequests() ?
+                (RedisSessionManager) manager : null;
+    }
+}
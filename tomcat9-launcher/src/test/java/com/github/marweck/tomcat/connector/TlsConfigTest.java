@@ -0,0 +1,178 @@
+package com.github.marweck.tomcat.connector;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Starts TLS connectors with a self-signed certificate generated by keytool
+ * and checks the negotiated handshake.
+ *
+ * @author Marcio Carvalho
+ */
+public class TlsConfigTest {
+
+    private static final String PROTOCOL = "TLSv1.2";
+
+    private static final String CIPHER = "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256";
+
+    private Path dir;
+
+    private Tomcat tomcat;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tls-config-test");
+    }
+
+    @After
+    public void tearDown() throws LifecycleException, IOException {
+        if (tomcat != null) {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void negotiatesConfiguredProtocolCipherAndHttp2() throws Exception {
+
+        File keystore = generateKeystore("secret");
+
+        int port = start(new ConnectorConfig()
+                .setHttp2(new Http2Config())
+                .setTls(new TlsConfig()
+                        .setKeystoreFile(keystore.getAbsolutePath())
+                        .setKeystorePassword("secret")
+                        .setKeystoreType("PKCS12")
+                        .setProtocols(PROTOCOL)
+                        .setCiphers(CIPHER)));
+
+        try (SSLSocket socket = handshake(port, keystore, "secret")) {
+            assertEquals(PROTOCOL, socket.getSession().getProtocol());
+            assertEquals(CIPHER, socket.getSession().getCipherSuite());
+            assertEquals("h2", socket.getApplicationProtocol());
+        }
+    }
+
+    @Test
+    public void keepsTheDefaultKeystorePassword() throws Exception {
+
+        File keystore = generateKeystore("changeit");
+
+        int port = start(new ConnectorConfig()
+                .setTls(new TlsConfig()
+                        .setKeystoreFile(keystore.getAbsolutePath())
+                        .setKeystoreType("PKCS12")));
+
+        try (SSLSocket socket = handshake(port, keystore, "changeit")) {
+            assertTrue(socket.getSession().isValid());
+        }
+    }
+
+    /**
+     * Starts Tomcat with a connector on an ephemeral port
+     *
+     * @param config
+     * @return the connector port
+     * @throws LifecycleException
+     */
+    private int start(ConnectorConfig config) throws LifecycleException {
+
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(dir.toString());
+
+        Connector connector = config.createConnector(tomcat.getService(), null);
+        connector.setPort(0);
+
+        tomcat.getService().addConnector(connector);
+        tomcat.setConnector(connector);
+        tomcat.getHost();
+        tomcat.start();
+
+        return connector.getLocalPort();
+    }
+
+    /**
+     * @param password
+     *         keystore and key password
+     * @return PKCS12 keystore holding a self-signed localhost certificate
+     * @throws Exception
+     */
+    private File generateKeystore(String password) throws Exception {
+
+        File keystore = dir.resolve("keystore-" + password + ".p12").toFile();
+        File keytool = new File(System.getProperty("java.home"), "bin/keytool");
+
+        Process process = new ProcessBuilder(keytool.getPath(), "-genkeypair", "-alias", "tomcat",
+                "-keyalg", "RSA", "-keysize", "2048", "-validity", "1", "-dname", "CN=localhost",
+                "-storetype", "PKCS12", "-keystore", keystore.getPath(),
+                "-storepass", password, "-keypass", password)
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve("keytool.log").toFile())
+                .start();
+
+        assertEquals("keytool exit code", 0, process.waitFor());
+
+        return keystore;
+    }
+
+    /**
+     * Connects trusting the generated certificate, offering TLS 1.2 and 1.3
+     * and the h2 and http/1.1 application protocols
+     *
+     * @param port
+     * @param keystore
+     * @param password
+     * @return socket after the handshake
+     * @throws Exception
+     */
+    private SSLSocket handshake(int port, File keystore, String password) throws Exception {
+
+        KeyStore trusted = KeyStore.getInstance("PKCS12");
+
+        try (InputStream in = new FileInputStream(keystore)) {
+            trusted.load(in, password.toCharArray());
+        }
+
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trusted);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", port);
+
+        SSLParameters parameters = socket.getSSLParameters();
+        parameters.setProtocols(new String[]{"TLSv1.2", "TLSv1.3"});
+        parameters.setApplicationProtocols(new String[]{"h2", "http/1.1"});
+        socket.setSSLParameters(parameters);
+
+        socket.startHandshake();
+
+        return socket;
+    }
+}
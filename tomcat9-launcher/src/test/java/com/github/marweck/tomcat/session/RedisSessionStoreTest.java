@@ -0,0 +1,161 @@
+package com.github.marweck.tomcat.session;
+
+import org.junit.Test;
+import org.redisson.config.ClusterServersConfig;
+import org.redisson.config.Config;
+import org.redisson.config.MasterSlaveServersConfig;
+import org.redisson.config.ReadMode;
+import org.redisson.config.SentinelServersConfig;
+import org.redisson.config.SingleServerConfig;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the Redisson configuration built for each topology. The server
+ * configuration of a topology is reached through its use method, which
+ * returns the one already set.
+ *
+ * @author Marcio Carvalho
+ */
+public class RedisSessionStoreTest {
+
+    private static final String URL = "redis://10.0.0.1:6379";
+
+    @Test
+    public void singleServer() {
+
+        Config config = tuned(new RedisSessionStore(URL, "app", "secret")).createConfig();
+
+        assertFalse(config.isSentinelConfig());
+        assertFalse(config.isClusterConfig());
+
+        SingleServerConfig server = config.useSingleServer();
+
+        assertEquals(URL, server.getAddress());
+        assertEquals("app", server.getClientName());
+        assertEquals("secret", server.getPassword());
+        assertEquals(48, server.getConnectionPoolSize());
+        assertEquals(12, server.getConnectionMinimumIdleSize());
+        assertEquals(2000, server.getTimeout());
+        assertEquals(5, server.getRetryAttempts());
+        assertEquals(700, server.getRetryInterval());
+    }
+
+    @Test
+    public void singleServerDefaults() {
+
+        SingleServerConfig server = new RedisSessionStore(URL).createConfig().useSingleServer();
+        SingleServerConfig defaults = new Config().useSingleServer();
+
+        assertEquals(defaults.getConnectionPoolSize(), server.getConnectionPoolSize());
+        assertEquals(defaults.getConnectionMinimumIdleSize(), server.getConnectionMinimumIdleSize());
+        assertEquals(defaults.getTimeout(), server.getTimeout());
+        assertEquals(defaults.getRetryAttempts(), server.getRetryAttempts());
+        assertEquals(defaults.getRetryInterval(), server.getRetryInterval());
+    }
+
+    @Test
+    public void sentinel() {
+
+        Config config = tuned(new RedisSessionStore(URL, "app", "secret")
+                .useSentinel("sessions", "redis://10.0.0.2:26379", "redis://10.0.0.3:26379")
+                .setReplicaReads(true))
+                .createConfig();
+
+        assertTrue(config.isSentinelConfig());
+
+        SentinelServersConfig servers = config.useSentinelServers();
+
+        assertEquals("sessions", servers.getMasterName());
+        assertEquals(Arrays.asList(URL, "redis://10.0.0.2:26379", "redis://10.0.0.3:26379"),
+                servers.getSentinelAddresses());
+        assertEquals(ReadMode.SLAVE, servers.getReadMode());
+        assertEquals("app", servers.getClientName());
+        assertEquals("secret", servers.getPassword());
+        assertMasterReplicaTuning(servers.getMasterConnectionPoolSize(), servers.getSlaveConnectionPoolSize(),
+                servers.getMasterConnectionMinimumIdleSize(), servers.getSlaveConnectionMinimumIdleSize());
+        assertEquals(2000, servers.getTimeout());
+        assertEquals(5, servers.getRetryAttempts());
+        assertEquals(700, servers.getRetryInterval());
+    }
+
+    @Test
+    public void masterReplica() {
+
+        Config config = tuned(new RedisSessionStore(URL)
+                .useMasterReplica("redis://10.0.0.2:6379", "redis://10.0.0.3:6379"))
+                .createConfig();
+
+        MasterSlaveServersConfig servers = config.useMasterSlaveServers();
+
+        assertEquals(URL, servers.getMasterAddress());
+        assertEquals(new HashSet<>(Arrays.asList("redis://10.0.0.2:6379", "redis://10.0.0.3:6379")),
+                servers.getSlaveAddresses());
+        assertEquals(ReadMode.MASTER, servers.getReadMode());
+        assertMasterReplicaTuning(servers.getMasterConnectionPoolSize(), servers.getSlaveConnectionPoolSize(),
+                servers.getMasterConnectionMinimumIdleSize(), servers.getSlaveConnectionMinimumIdleSize());
+        assertEquals(2000, servers.getTimeout());
+        assertEquals(5, servers.getRetryAttempts());
+        assertEquals(700, servers.getRetryInterval());
+    }
+
+    @Test
+    public void cluster() {
+
+        Config config = tuned(new RedisSessionStore(URL)
+                .useCluster("redis://10.0.0.2:6379")
+                .setReplicaReads(true))
+                .createConfig();
+
+        assertTrue(config.isClusterConfig());
+
+        ClusterServersConfig servers = config.useClusterServers();
+
+        assertEquals(Arrays.asList(URL, "redis://10.0.0.2:6379"), servers.getNodeAddresses());
+        assertEquals(ReadMode.SLAVE, servers.getReadMode());
+        assertMasterReplicaTuning(servers.getMasterConnectionPoolSize(), servers.getSlaveConnectionPoolSize(),
+                servers.getMasterConnectionMinimumIdleSize(), servers.getSlaveConnectionMinimumIdleSize());
+        assertEquals(2000, servers.getTimeout());
+        assertEquals(5, servers.getRetryAttempts());
+        assertEquals(700, servers.getRetryInterval());
+    }
+
+    @Test
+    public void clusterWithoutOtherSeeds() {
+
+        ClusterServersConfig servers = new RedisSessionStore(URL).useCluster().createConfig().useClusterServers();
+
+        assertEquals(Collections.singletonList(URL), servers.getNodeAddresses());
+        assertEquals(ReadMode.MASTER, servers.getReadMode());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void sentinelRequiresMasterName() {
+        new RedisSessionStore(URL).useSentinel(null);
+    }
+
+    private static RedisSessionStore tuned(RedisSessionStore store) {
+        return store
+                .setConnectionPoolSize(48)
+                .setConnectionMinimumIdleSize(12)
+                .setTimeout(2000)
+                .setRetryAttempts(5)
+                .setRetryInterval(700);
+    }
+
+    /**
+     * Pool sizes apply to the master and to each replica
+     */
+    private static void assertMasterReplicaTuning(int masterPool, int replicaPool, int masterIdle, int replicaIdle) {
+        assertEquals(48, masterPool);
+        assertEquals(48, replicaPool);
+        assertEquals(12, masterIdle);
+        assertEquals(12, replicaIdle);
+    }
+}